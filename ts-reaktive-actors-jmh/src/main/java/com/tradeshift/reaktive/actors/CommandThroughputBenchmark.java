@@ -0,0 +1,149 @@
+package com.tradeshift.reaktive.actors;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+
+/**
+ * Measures how many commands per second a single entity handles, with a {@link SynchronousCommandHandler}, while
+ * [window] commands are kept outstanding. Read commands don't emit events, write commands emit one event each into
+ * the in-memory journal. Entities either create their own handler ("instance"), or share one ("shared").
+ *
+ * Run with {@code sbt "ts-reaktive-actors-jmh/jmh:run CommandThroughputBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandThroughputBenchmark {
+    private static final int COMMANDS = 1000;
+
+    public static class EntityState extends AbstractState<String, EntityState> {
+        @Override
+        public EntityState apply(String event) {
+            return this;
+        }
+    }
+
+    public static class Handler implements SynchronousCommandHandler<String, String, EntityState> {
+        @Override
+        public boolean canHandle(String cmd) {
+            return true;
+        }
+
+        @Override
+        public Results<String> handleSynchronously(EntityState state, String cmd) {
+            return new Results<String>() {
+                @Override
+                public Seq<String> getEventsToEmit() {
+                    return cmd.equals("write") ? Vector.of(cmd) : Vector.empty();
+                }
+
+                @Override
+                public Object getReply(Seq<String> emittedEvents, long lastSequenceNr) {
+                    return Done.getInstance();
+                }
+            };
+        }
+    }
+
+    /** An entity with its own instance of the handler */
+    public static class Entity extends AbstractStatefulPersistentActor<String, String, EntityState> {
+        public Entity() {
+            super(String.class, String.class, new Handler());
+        }
+
+        @Override
+        protected EntityState initialState() {
+            return new EntityState();
+        }
+    }
+
+    /** An entity with a handler that is shared by all instances */
+    public static class SharedEntity extends AbstractStatefulPersistentActor<String, String, EntityState> {
+        public SharedEntity() {
+            super(String.class, String.class, () -> new Handler());
+        }
+
+        @Override
+        protected EntityState initialState() {
+            return new EntityState();
+        }
+    }
+
+    @Param({"read", "write"})
+    public String command;
+
+    @Param({"1", "16"})
+    public int window;
+
+    @Param({"instance", "shared"})
+    public String handlers;
+
+    private ActorSystem system;
+    private ActorRef entity;
+    private int entities = 0;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("CommandThroughputBenchmark", ConfigFactory.parseString(
+            "akka.loglevel = WARNING\n" +
+            "akka.persistence.journal.plugin = inmemory-journal\n" +
+            "akka.persistence.snapshot-store.plugin = inmemory-snapshot-store\n"
+        ).withFallback(ConfigFactory.load()));
+    }
+
+    /** Each iteration starts with a new entity, so the journal of earlier iterations doesn't need to be recovered */
+    @Setup(Level.Iteration)
+    public void startEntity() {
+        entities++;
+        entity = system.actorOf(Props.create(handlers.equals("shared") ? SharedEntity.class : Entity.class), "entity-" + entities);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    /** Measures commands per second */
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public void commands() throws Exception {
+        CompletableFuture<?>[] outstanding = new CompletableFuture<?>[window];
+        for (int i = 0; i < COMMANDS; i++) {
+            int slot = i % window;
+            if (outstanding[slot] != null) {
+                outstanding[slot].get(10, TimeUnit.SECONDS);
+            }
+            outstanding[slot] = PatternsCS.ask(entity, command, 10000).toCompletableFuture();
+        }
+        CompletableFuture.allOf(outstanding).get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,72 @@
+package com.tradeshift.reaktive.actors;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
+
+/**
+ * Measures the heap used per resident entity, by starting [entities] instances of
+ * {@link CommandThroughputBenchmark.Entity} and of {@link CommandThroughputBenchmark.SharedEntity} that have each
+ * persisted one event, and comparing the heap in use (after GC) before and after. Since JMH doesn't measure retained
+ * memory, this is a plain main class:
+ *
+ * {@code sbt "ts-reaktive-actors-jmh/runMain com.tradeshift.reaktive.actors.EntityFootprintBenchmark [entities]"}
+ */
+public class EntityFootprintBenchmark {
+    public static void main(String[] args) throws Exception {
+        int entities = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        ActorSystem system = ActorSystem.create("EntityFootprintBenchmark", ConfigFactory.parseString(
+            "akka.loglevel = WARNING\n" +
+            "akka.persistence.journal.plugin = inmemory-journal\n" +
+            "akka.persistence.snapshot-store.plugin = inmemory-snapshot-store\n"
+        ).withFallback(ConfigFactory.load()));
+        try {
+            measure(system, "instance", CommandThroughputBenchmark.Entity.class, entities);
+            measure(system, "shared", CommandThroughputBenchmark.SharedEntity.class, entities);
+        } finally {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Prints the heap used per entity of the given class, while [entities] of them are resident */
+    private static void measure(ActorSystem system, String name, Class<?> entityClass, int entities) throws Exception {
+        ActorRef[] resident = new ActorRef[entities];
+        // Warm up the actor system, journal and actor class, so that only the entities themselves are measured.
+        start(system, entityClass, name + "-warmup-", new ActorRef[100]);
+
+        long before = usedHeap();
+        start(system, entityClass, name + "-", resident);
+        long after = usedHeap();
+
+        System.out.println(String.format("%s handlers, %d entities: %d bytes per entity (including journal)",
+            name, resident.length, (after - before) / entities));
+    }
+
+    /** Fills [refs] with new entities, each of which has handled a write command */
+    private static void start(ActorSystem system, Class<?> entityClass, String prefix, ActorRef[] refs) throws Exception {
+        CompletableFuture<?>[] written = new CompletableFuture<?>[refs.length];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = system.actorOf(Props.create(entityClass), prefix + i);
+            written[i] = PatternsCS.ask(refs[i], "write", 60000).toCompletableFuture();
+        }
+        CompletableFuture.allOf(written).get(1, TimeUnit.MINUTES);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
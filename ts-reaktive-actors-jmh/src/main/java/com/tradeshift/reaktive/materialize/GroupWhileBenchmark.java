@@ -0,0 +1,86 @@
+package com.tradeshift.reaktive.materialize;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tradeshift.reaktive.akka.SharedActorMaterializer;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.FlowShape;
+import akka.stream.Graph;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.collection.Seq;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Compares the throughput of {@link GroupWhile} with that of its earlier, Vector based implementation, by streaming
+ * [ELEMENTS] elements that form groups of [groupSize] elements each.
+ *
+ * Run with {@code sbt "ts-reaktive-actors-jmh/jmh:run -prof gc GroupWhileBenchmark"} to also see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupWhileBenchmark {
+    private static final int ELEMENTS = 100000;
+    private static final BiFunction<Integer, Integer, Boolean> test = (a, b) -> a.intValue() == b.intValue();
+
+    @Param({"100", "1000", "25000"})
+    public int groupSize;
+
+    @Param({"array", "vector"})
+    public String implementation;
+
+    private ActorSystem system;
+    private ActorMaterializer materializer;
+    private Graph<FlowShape<Integer, Seq<Integer>>, NotUsed> stage;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("GroupWhileBenchmark");
+        materializer = SharedActorMaterializer.get(system);
+        FiniteDuration idle = FiniteDuration.create(1, TimeUnit.SECONDS);
+        stage = implementation.equals("array")
+            ? GroupWhile.apply(test, groupSize, idle)
+            : new VectorGroupWhile<>(test, groupSize, idle);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    /** Measures elements per second */
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public Object group() throws Exception {
+        int size = groupSize;
+        return Source.range(0, ELEMENTS - 1)
+            .map(i -> i / size)
+            .via(stage)
+            .runWith(Sink.ignore(), materializer)
+            .toCompletableFuture()
+            .get(1, TimeUnit.MINUTES);
+    }
+}
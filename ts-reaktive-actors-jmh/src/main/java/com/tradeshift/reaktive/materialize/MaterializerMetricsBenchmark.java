@@ -0,0 +1,53 @@
+package com.tradeshift.reaktive.materialize;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Map;
+import kamon.Kamon;
+
+/**
+ * Measures counting one materialized event for one of 4 worker indexes, through the instruments that
+ * {@link MaterializerMetrics} caches per index, and by refining the metric for every event as it used to.
+ *
+ * Run with {@code sbt "ts-reaktive-actors-jmh/jmh:run -prof gc MaterializerMetricsBenchmark"} to also see the
+ * allocations per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaterializerMetricsBenchmark {
+    private static final int WORKERS = 4;
+
+    private final MaterializerMetrics metrics = new MaterializerMetrics("benchmark", HashMap.empty());
+    private final Map<String, String> baseTags = HashMap.of("journal-materializer", "benchmark");
+    private int index = 0;
+
+    private int nextIndex() {
+        index = (index + 1) % WORKERS;
+        return index;
+    }
+
+    @Benchmark
+    public void cached() {
+        metrics.getEvents(nextIndex()).increment();
+    }
+
+    @Benchmark
+    public void refinedPerEvent() {
+        Kamon.counter("journal-materializer.events").refine(baseTags.put("index", String.valueOf(nextIndex())).toJavaMap()).increment();
+    }
+}
@@ -3,22 +3,32 @@ package com.tradeshift.reaktive.actors;
 import static akka.pattern.PatternsCS.pipe;
 
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigObject;
 import com.typesafe.config.ConfigValueFactory;
 
+import akka.Done;
+import akka.actor.ActorRef;
 import akka.actor.ReceiveTimeout;
 import akka.cluster.sharding.ShardRegion;
-import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import akka.japi.Procedure;
 import akka.japi.pf.ReceiveBuilder;
 import akka.persistence.AbstractPersistentActorWithTimers;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.DeleteSnapshotsSuccess;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotMetadata;
 import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotProtocol;
+import akka.persistence.SnapshotSelectionCriteria;
 import akka.persistence.journal.Tagged;
 import akka.actor.Status.Failure;
 import io.vavr.collection.Seq;
@@ -28,7 +38,9 @@ import scala.concurrent.duration.Duration;
 
 /**
  * Base class for persistent actor that manages some state, receives commands of a defined type, and emits events of a defined type.
- * The actor automatically passivates itself after a configured timeout.
+ * The actor automatically passivates itself after a configured timeout, or when ts-reaktive.actors.passivation.max-active-entities
+ * is exceeded on this node and it's the least valuable entity to keep (see {@link PassivationCoordinator}).
+ * Subclasses that override {@link #postStop()} must invoke super.postStop().
  * The actor automatically tags emitted events with the simple class name of E (without package), or with the tag specified
  * under ts-reaktive.actors.tags.[full-class-name].
  *
@@ -36,45 +48,131 @@ import scala.concurrent.duration.Duration;
  * 
  * <code><pre>
  *   public MyActor() {
- *       super(MyCommand.class, MyEvent.class);
+ *       super(MyCommand.class, MyEvent.class, () -> new MyHandler().orElse(new MyOtherHandler()));
  *   }
  * </pre></code>
  * 
+ * Settings that are the same for all instances of an actor class (its event tag, snapshot and batch settings, logger and,
+ * if given as a Supplier, its command handlers) are only kept once per class, in order to keep resident entities small.
+ * 
  * Implementations should not use the persistAsync* variants, as they would allow internal actor state to diverge.
  * 
+ * Commands that arrive while an earlier command is being handled can be handled together as one batch, by setting
+ * ts-reaktive.actors.max-command-batch-size or overriding {@link #getMaxCommandBatchSize()}.
+ * 
+ * Snapshots of the state can be enabled using ts-reaktive.actors.snapshot, or by overriding {@link #getSnapshotEveryEvents()}
+ * and/or {@link #getSnapshotInterval()}. In that case, S must be serializable by akka.
+ * 
  * @param <C> Type of commands that this actor expects to receive.
  * @param <E> Type of events that this actor emits.
  * @param <S> Immutable type that contains all the state the actor maintains.
  */
 public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractState<E,S>> extends AbstractPersistentActorWithTimers {
-    protected final LoggingAdapter log = Logging.getLogger(context().system(), this);
-    
-    private S state = initialState();
-    private boolean idle = true;
-
-    //IDEA: We can save memory per actor by pushing these fields down into a type class, since the fields have the same value for every type of actor...
+    /** Logs with this actor's path as source, through the logger of its class */
+    protected final LoggingAdapter log;
+    /** @deprecated Use {@link #getEventType()} instead. */
+    @Deprecated
     protected final Class<E> eventType;
+    /** @deprecated Use {@link #getCommandType()} instead. */
+    @Deprecated
     protected final Class<C> commandType;
-    private final String tagName;
+    private final PersistentActorType<C,E,S> type;
     private final CommandHandler<C,E,S> handlers;
+
+    private S state;
+    private boolean idle = true;
+    /** Only kept while needed, or throughout if this actor class batches commands or saves snapshots */
+    private Bookkeeping<C,E,S> bookkeeping = new Bookkeeping<>();
+    /** The command that canHandleCommand() has last resolved a handler for, so it can be handled right away */
+    private Object selectedFor;
+    private CommandHandler<C,E,S> selected;
     
     public static String getEventTag(Config config, Class<?> eventType) {
         ConfigObject tags = config.getConfig("ts-reaktive.actors.tags").root();
         return (String) tags.getOrDefault(eventType.getName(), ConfigValueFactory.fromAnyRef(eventType.getSimpleName())).unwrapped();
     }
     
+    /**
+     * Creates the actor with handlers that are specific to this instance.
+     */
     public AbstractStatefulPersistentActor(Class<C> commandType, Class<E> eventType, CommandHandler<C,E,S> handlers) {
-        this.commandType = commandType;
-        this.eventType = eventType;
-        this.tagName = getEventTag(context().system().settings().config(), eventType);
+        this.type = PersistentActorType.get(context().system(), getClass(), () -> createType(commandType, eventType));
+        this.log = new EntityLoggingAdapter(type.getLog(), self());
+        this.eventType = type.getEventType();
+        this.commandType = type.getCommandType();
         this.handlers = handlers;
+        this.state = initialState();
         context().setReceiveTimeout(Duration.fromNanos(getPassivateTimeout().toNanos()));
     }
 
+    /**
+     * Creates the actor with handlers that are shared by all instances of this actor class. The supplier is only
+     * invoked for the first instance.
+     */
+    public AbstractStatefulPersistentActor(Class<C> commandType, Class<E> eventType, Supplier<CommandHandler<C,E,S>> handlers) {
+        this.type = PersistentActorType.get(context().system(), getClass(), () -> createType(commandType, eventType));
+        this.log = new EntityLoggingAdapter(type.getLog(), self());
+        this.eventType = type.getEventType();
+        this.commandType = type.getCommandType();
+        this.handlers = type.getHandlers(handlers);
+        this.state = initialState();
+        context().setReceiveTimeout(Duration.fromNanos(getPassivateTimeout().toNanos()));
+    }
+
+    private PersistentActorType<C,E,S> createType(Class<C> commandType, Class<E> eventType) {
+        return new PersistentActorType<>(context().system(), getClass(), commandType, eventType,
+            getEventTag(context().system().settings().config(), eventType),
+            getSnapshotEveryEvents(), getSnapshotInterval(), getMaxCommandBatchSize(), getMaxPendingCommands());
+    }
+
+    /** Returns the type of commands that this actor expects to receive */
+    protected Class<C> getCommandType() {
+        return type.getCommandType();
+    }
+
+    /** Returns the type of events that this actor emits */
+    protected Class<E> getEventType() {
+        return type.getEventType();
+    }
+
     protected java.time.Duration getPassivateTimeout() {
         return context().system().settings().config().getDuration("ts-reaktive.actors.passivate-timeout");
     }
 
+    /**
+     * Returns after how many persisted events a snapshot of the state should be saved, or 0 to not save snapshots
+     * based on the number of events. This is only invoked once for each actor class.
+     */
+    protected int getSnapshotEveryEvents() {
+        return context().system().settings().config().getInt("ts-reaktive.actors.snapshot.every-events");
+    }
+
+    /**
+     * Returns after how much time (with at least one event having been persisted) a snapshot of the state should be saved,
+     * or zero to not save snapshots based on time. This is only invoked once for each actor class.
+     */
+    protected java.time.Duration getSnapshotInterval() {
+        return context().system().settings().config().getDuration("ts-reaktive.actors.snapshot.every-interval");
+    }
+
+    /**
+     * Returns the maximum number of commands to handle together as one batch, once they have queued up while an earlier
+     * command was being handled or its events were being written. A value of 1 handles every command on its own.
+     * The handlers of a batch are invoked one after the other on the actor, like those of single commands.
+     * This is only invoked once for each actor class.
+     */
+    protected int getMaxCommandBatchSize() {
+        return context().system().settings().config().getInt("ts-reaktive.actors.max-command-batch-size");
+    }
+
+    /**
+     * Returns the maximum number of commands to queue up for the next batch, while a batch is being handled. Commands
+     * beyond that are stashed until the queue has room again. This is only invoked once for each actor class.
+     */
+    protected int getMaxPendingCommands() {
+        return context().system().settings().config().getInt("ts-reaktive.actors.max-pending-commands");
+    }
+
     /**
      * Returns whether the asynchronous part of a Handler for this command is currently in progress
      * (and, hence, further commands would currently be stashed if sent to this actor)
@@ -87,43 +185,135 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
     @Override
     public Receive createReceive() {
         return ReceiveBuilder.create()
-            .match(commandType, msg -> canHandleCommand(msg) && idle, msg -> {
-                handleCommand(msg);
-                idle = false;
-            })
-            .match(commandType, msg -> canHandleCommand(msg), msg -> {
-                // we're awaiting results from another command, so let's wait with this one
-                stash();
-            })
-            .match(CommandHandler.Results.class, msg -> idle, msg -> {
-                // If results happen to come in while we're idle, let's accept them anyways
-                log.warning("Received unexpected Results object when idle, but accepting anyways: {}", msg);
-                handleResults((CommandHandler.Results<E>) msg);
+            .match(type.getCommandType(), msg -> canHandleCommand(msg), msg -> {
+                if (idle) {
+                    if (type.getPassivation().isEnabled()) {
+                        type.getPassivation().touched(self());
+                    }
+                    // handling may complete synchronously, in which case we're idle again right away
+                    idle = false;
+                    if (type.isBatching()) {
+                        handleBatch(Vector.of(new PendingCommand<>(msg, handlerFor(msg), sender())));
+                    } else {
+                        handleCommand(msg);
+                    }
+                } else if (type.isBatching() && bookkeeping().pending.size() < type.getMaxPendingCommands()) {
+                    // we're awaiting results from another command, so let's wait with this one
+                    Bookkeeping<C,E,S> b = bookkeeping();
+                    b.pending = b.pending.append(new PendingCommand<>(msg, handlerFor(msg), sender()));
+                    type.getMetrics().getStashDepth().record(b.pending.size() + b.stashed);
+                } else {
+                    // the handler is looked up again once the command is unstashed
+                    forgetSelectedHandler();
+                    stashUntilIdle();
+                    type.getMetrics().getStashDepth().record(bookkeeping.pending.size() + bookkeeping.stashed);
+                }
             })
             .match(CommandHandler.Results.class, msg -> {
-                handleResults((CommandHandler.Results<E>) msg);
-                unstashAll();
-                idle = true;
+                if (idle) {
+                    // If results happen to come in while we're idle, let's accept them anyways
+                    log.warning("Received unexpected Results object when idle, but accepting anyways: {}", msg);
+                    handleResults((CommandHandler.Results<E>) msg);
+                } else {
+                    handleResults((CommandHandler.Results<E>) msg);
+                    unstashAll();
+                    idle = true;
+                    if (bookkeeping != null) {
+                        bookkeeping.stashed = 0;
+                        releaseBookkeeping();
+                    }
+                }
             })
             .match(Failure.class, f -> {
                 log.error(f.cause(), "A future piped to this actor has failed, rethrowing.");
+                failBatch(f.cause());
                 throw (f.cause() instanceof Exception) ? Exception.class.cast(f.cause()) : new Exception(f.cause());
             })
-            .matchEquals(ReceiveTimeout.getInstance(), msg -> passivate())
-            .match(Stop.class, msg -> context().stop(self()))
+            .match(Object.class, AbstractStatefulPersistentActor::isInternalMessage, this::onInternalMessage)
             .build();
     }
 
+    /**
+     * Returns whether [msg] is one of the messages that the actor itself, akka, or ts-reaktive send to an entity
+     * besides its commands. These are matched as one case in [createReceive], since every case there is allocated again
+     * for each entity.
+     */
+    private static boolean isInternalMessage(Object msg) {
+        return msg instanceof BatchStep || msg instanceof SnapshotProtocol.Response || msg == ReceiveTimeout.getInstance() ||
+            msg instanceof PassivationCoordinator.Evict || msg instanceof PersistentActorSharding.WarmUp || msg instanceof Stop;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onInternalMessage(Object msg) {
+        if (msg instanceof BatchStep) {
+            onBatchStep((BatchStep<C,E,S>) msg);
+        } else if (msg instanceof SnapshotProtocol.Response) {
+            onSnapshotResponse((SnapshotProtocol.Response) msg);
+        } else if (msg instanceof PersistentActorSharding.WarmUp) {
+            sender().tell(Done.getInstance(), self());
+        } else if (!idle) {
+            // Passivating or stopping now would drop the commands that are being handled (and queued up) without a
+            // reply, so this waits until they're done, like the commands that arrive in the meantime.
+            stashUntilIdle();
+        } else if (msg instanceof Stop) {
+            context().stop(self());
+        } else {
+            passivate();
+        }
+    }
+
+    /**
+     * Handles the replies of the snapshot store.
+     */
+    private void onSnapshotResponse(SnapshotProtocol.Response msg) {
+        if (msg instanceof SaveSnapshotSuccess) {
+            onSnapshotSaved(((SaveSnapshotSuccess) msg).metadata());
+        } else if (msg instanceof SaveSnapshotFailure) {
+            SaveSnapshotFailure failure = (SaveSnapshotFailure) msg;
+            log.warning("Saving snapshot at {} failed: {}", failure.metadata().sequenceNr(), failure.cause());
+            type.getMetrics().getSnapshotFailures().increment();
+        } else if (msg instanceof DeleteSnapshotsSuccess) {
+            log.debug("Deleted snapshots: {}", ((DeleteSnapshotsSuccess) msg).criteria());
+        } else if (msg instanceof DeleteSnapshotsFailure) {
+            DeleteSnapshotsFailure failure = (DeleteSnapshotsFailure) msg;
+            log.warning("Deleting snapshots {} failed: {}", failure.criteria(), failure.cause());
+        } else {
+            unhandled(msg);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     @Override
     public Receive createReceiveRecover() {
         return ReceiveBuilder.create()
-            .match(eventType, evt -> { updateState(evt); })
+            .match(type.getEventType(), evt -> { updateState(evt); })
             .match(SnapshotOffer.class, snapshot -> {
-                // Snapshots support is not implemented yet.
+                log.debug("Recovering from snapshot at {}", snapshot.metadata().sequenceNr());
+                state = (S) snapshot.snapshot();
+            })
+            .match(RecoveryCompleted.class, msg -> {
+                long now = System.nanoTime();
+                long recoveryMillis = (now - bookkeeping.lastSnapshot) / 1000000;
+                type.getMetrics().getRecoveryDuration().record(recoveryMillis);
+                if (type.getPassivation().isEnabled()) {
+                    type.getPassivation().activated(self(), recoveryMillis, type.getMetrics());
+                }
+                type.getMetrics().getRecoveryEvents().record(bookkeeping.eventsSinceSnapshot);
+                bookkeeping.lastSnapshot = now;
+                maybeSaveSnapshot();
+                releaseBookkeeping();
             })
             .build();
     }
     
+    @Override
+    public void postStop() throws Exception {
+        if (type.getPassivation().isEnabled()) {
+            type.getPassivation().stopped(self());
+        }
+        super.postStop();
+    }
+
     @Override
     public String persistenceId() {
         return self().path().name();
@@ -143,31 +333,86 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
     protected abstract S initialState();
     
     /**
-     * Returns whether any handler can handle the given command.
+     * Returns whether any handler can handle the given command. Incoming commands for which this returns false are
+     * left unhandled.
+     * 
+     * The default implementation looks up the handler using {@link #selectHandler(Object)}, and remembers it so the
+     * command can be handled without looking it up again. Receive predicates can be evaluated more than once for the
+     * same message (e.g. isDefinedAt() followed by apply()), so the latest lookup is reused for the same command instance.
      */
     protected boolean canHandleCommand(C cmd) {
-        return handlers.canHandle(cmd);
+        if (cmd != selectedFor) {
+            selected = selectHandler(cmd).getOrNull();
+            selectedFor = cmd;
+        }
+        return selected != null;
+    }
+
+    /**
+     * Returns the handler that handles the given command, or none if this actor doesn't handle it. Commands are handled
+     * by the handler returned here, both on their own and as part of a batch, so subclasses can override this to change
+     * how commands are dispatched. This is invoked once for each incoming command.
+     */
+    protected Option<CommandHandler<C,E,S>> selectHandler(C cmd) {
+        return handlers.select(cmd);
+    }
+
+    /**
+     * Returns the handler for [cmd], reusing the one that {@link #canHandleCommand(Object)} has looked up for it, if any.
+     * If a subclass accepts commands that no handler selects, they're given to all handlers combined.
+     */
+    private CommandHandler<C,E,S> handlerFor(C cmd) {
+        CommandHandler<C,E,S> handler = (cmd == selectedFor && selected != null) ? selected : selectHandler(cmd).getOrElse(handlers);
+        forgetSelectedHandler();
+        return handler;
+    }
+
+    /** Forgets the latest handler lookup, so the actor doesn't keep a reference to its command */
+    private void forgetSelectedHandler() {
+        selectedFor = null;
+        selected = null;
     }
     
     /**
-     * Handles the given command, and processes its results once they come in asynchronously. 
+     * Handles the given command, and processes its results once they come in asynchronously. If the handler has
+     * already completed (e.g. a {@link SynchronousCommandHandler}), its results are processed directly instead.
+     * 
+     * This is invoked for each incoming command, unless command batching is enabled (see {@link #getMaxCommandBatchSize()}),
+     * in which case commands are handled together by the handlers that {@link #selectHandler(Object)} returns.
      * 
      * Must only be invoked if {@link #canHandleCommand(Object)} has returned true for this command.
      */
     protected void handleCommand(C cmd) {
-        pipe(handlers.handle(state, cmd), context().dispatcher()).to(self(), sender());
+        handleCommand(cmd, handlerFor(cmd));
+    }
+
+    private void handleCommand(C cmd, CommandHandler<C,E,S> handler) {
+        long started = System.nanoTime();
+        CompletionStage<CommandHandler.Results<E>> results = handler.handle(state, cmd);
+        Option<CommandHandler.Results<E>> completed = completed(results);
+        if (completed.isDefined()) {
+            recordHandlerDuration(started);
+            handleResults(completed.get());
+            idle = true;
+        } else {
+            // The duration is recorded as the handler completes, so the actor doesn't need to keep its start time.
+            pipe(results.whenComplete((r, x) -> recordHandlerDuration(started)), context().dispatcher()).to(self(), sender());
+        }
     }
 
     /**
      * Applies the results that came in from a handler, emitting any events, and responding to sender().
      */
     protected void handleResults(CommandHandler.Results<E> results) {
+        type.getMetrics().getCommands().increment();
         Option<Object> error = results.getValidationError(lastSequenceNr());
         if (error.isDefined()) {
             log.debug("  invalid: {}", error.get());
+            type.getMetrics().getValidationFailures().increment();
             sender().tell(error.get(), self());
         } else if (results.isAlreadyApplied()) {
             log.debug("  was already applied.");
+            type.getMetrics().getIdempotentCommands().increment();
             sender().tell(results.getIdempotentReply(lastSequenceNr()), self());
         } else {
             Seq<E> events = results.getEventsToEmit();
@@ -188,6 +433,158 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
         }
     }
 
+    /**
+     * Handles the given commands in sequence, each against the state that results from the events of the commands
+     * before it, and processes their combined results once they have all come in.
+     */
+    private void handleBatch(Seq<PendingCommand<C,E,S>> batch) {
+        log.debug("Handling batch of {} commands", batch.size());
+        Bookkeeping<C,E,S> b = bookkeeping();
+        b.batch = batch;
+        b.batchStarted = System.nanoTime();
+        handleSequentially(state, lastSequenceNr(), batch, Vector.empty());
+    }
+
+    /**
+     * Invokes the handler of each remaining command of the current batch. Handlers that have already completed
+     * (e.g. a {@link SynchronousCommandHandler}) are followed by the next one right away. Otherwise, their results
+     * come back through the mailbox as a {@link BatchStep}, so that the next handler is invoked on the actor as well.
+     */
+    private void handleSequentially(S s, long seqNr, Seq<PendingCommand<C,E,S>> remaining, Vector<BatchResult<E>> done) {
+        while (!remaining.isEmpty()) {
+            PendingCommand<C,E,S> cmd = remaining.head();
+            CompletionStage<CommandHandler.Results<E>> results = cmd.handler.handle(s, cmd.command);
+            Option<CommandHandler.Results<E>> completed = completed(results);
+            if (completed.isEmpty()) {
+                S st = s;
+                long n = seqNr;
+                Seq<PendingCommand<C,E,S>> rest = remaining.tail();
+                Vector<BatchResult<E>> soFar = done;
+                pipe(results.thenApply(r -> new BatchStep<>(cmd.sender, r, st, n, rest, soFar)), context().dispatcher()).to(self());
+                return;
+            }
+            BatchResult<E> result = new BatchResult<>(cmd.sender, completed.get(), seqNr);
+            s = result.events.foldLeft(s, (st, evt) -> st.apply(evt));
+            seqNr += result.events.size();
+            remaining = remaining.tail();
+            done = done.append(result);
+        }
+        recordHandlerDuration(bookkeeping.batchStarted);
+        handleBatchResults(done);
+    }
+
+    /**
+     * Continues the current batch with the results of a handler that completed asynchronously.
+     */
+    private void onBatchStep(BatchStep<C,E,S> step) {
+        BatchResult<E> result = new BatchResult<>(step.sender, step.results, step.seqNr);
+        S next = result.events.foldLeft(step.state, (st, evt) -> st.apply(evt));
+        handleSequentially(next, step.seqNr + result.events.size(), step.remaining, step.done.append(result));
+    }
+
+    /**
+     * Returns the value of [future] if it has already completed successfully, so it can be processed without
+     * a round trip through this actor's mailbox.
+     */
+    private static <T> Option<T> completed(CompletionStage<T> future) {
+        if (future instanceof CompletableFuture) {
+            CompletableFuture<T> f = (CompletableFuture<T>) future;
+            if (f.isDone() && !f.isCompletedExceptionally()) {
+                return Option.some(f.join());
+            }
+        }
+        return Option.none();
+    }
+
+    /**
+     * Emits all events that resulted from a batch of commands in one write, and then responds to each command's sender.
+     * 
+     * Unlike persistAll(), persistAllAsync() doesn't stash incoming commands while the events are being written, so they
+     * queue up for the next batch instead of each being handled (and written) on their own afterwards. They're only
+     * queued, since the actor isn't idle until the write has completed, so no handler sees state that isn't durable yet.
+     */
+    private void handleBatchResults(Seq<BatchResult<E>> results) {
+        type.getMetrics().getCommands().increment(results.size());
+        type.getMetrics().getValidationFailures().increment(results.count(r -> r.error.isDefined()));
+        type.getMetrics().getIdempotentCommands().increment(results.count(r -> r.alreadyApplied));
+        Seq<E> events = results.flatMap(r -> r.events);
+        log.debug("  batch emitting {}", events);
+        if (events.isEmpty()) {
+            results.forEach(r -> r.reply(self()));
+            handleNextBatch();
+        } else {
+            if (lastSequenceNr() == 0) {
+                validateFirstEvent(events.head());
+            }
+            Vector<Tagged> tagged = tagged(events);
+            AtomicInteger need = new AtomicInteger(tagged.size());
+            persistAllAsync(tagged, onPersisted(tagged.size(), evt -> {
+                if (need.decrementAndGet() == 0) {
+                    results.forEach(r -> r.reply(self()));
+                    handleNextBatch();
+                }
+            }));
+        }
+    }
+
+    private void handleNextBatch() {
+        Bookkeeping<C,E,S> b = bookkeeping;
+        b.batch = Vector.empty();
+        if (b.stashed > 0) {
+            // Commands that didn't fit in the queue will be queued again behind the ones that did, or start a new batch.
+            unstashAll();
+            b.stashed = 0;
+        }
+        if (b.pending.isEmpty()) {
+            idle = true;
+        } else {
+            // The batch may complete synchronously and come back here, so it must no longer be pending by then.
+            Seq<PendingCommand<C,E,S>> batch = b.pending.take(type.getMaxCommandBatchSize());
+            b.pending = b.pending.drop(type.getMaxCommandBatchSize());
+            handleBatch(batch);
+        }
+    }
+
+    /**
+     * Replies with a failure to the commands of the current batch, and those queued up behind it, since they'll be
+     * lost when the actor restarts. Stashed commands are kept by the restart, and don't need this.
+     */
+    private void failBatch(Throwable cause) {
+        if (bookkeeping != null) {
+            bookkeeping.batch.appendAll(bookkeeping.pending).forEach(cmd -> cmd.sender.tell(new Failure(cause), self()));
+            bookkeeping.batch = Vector.empty();
+            bookkeeping.pending = Vector.empty();
+        }
+    }
+
+    /**
+     * Stashes the current message until the command that is being handled (or the current batch) is done.
+     */
+    private void stashUntilIdle() {
+        stash();
+        bookkeeping().stashed++;
+    }
+
+    /**
+     * Returns the bookkeeping for batches, stashed messages and snapshots, allocating it if the actor had dropped it.
+     */
+    private Bookkeeping<C,E,S> bookkeeping() {
+        if (bookkeeping == null) {
+            bookkeeping = new Bookkeeping<>();
+        }
+        return bookkeeping;
+    }
+
+    /**
+     * Drops the bookkeeping once nothing is stashed, unless this actor class batches commands or saves snapshots,
+     * so that idle entities of other classes don't keep it around.
+     */
+    private void releaseBookkeeping() {
+        if (!type.isBatching() && !type.isSnapshotting() && bookkeeping.stashed == 0) {
+            bookkeeping = null;
+        }
+    }
+
     /**
      * Makes sure the first to-be-emitted event for this persistenceId is formatted as expected.
      * The default implementation does nothing.
@@ -196,6 +593,11 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
      */
     protected void validateFirstEvent(E head) { }
 
+    /** Records the duration of the handlers for a command (or batch) that were invoked at [started] (System.nanoTime()) */
+    private void recordHandlerDuration(long started) {
+        type.getMetrics().getHandlerDuration().record((System.nanoTime() - started) / 1000);
+    }
+
     /**
      * Saves an event and updates actor state after the event was successfully saved.
      */
@@ -219,8 +621,11 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
     public <A> void persist(A event, Procedure<A> callback) {
         @SuppressWarnings("unchecked")
         E e = (E) event;
+        long started = System.nanoTime();
         super.persist(tagged(e), persisted -> {
+            type.getMetrics().getPersistDuration().record((System.nanoTime() - started) / 1000);
             updateState(e);
+            maybeSaveSnapshot();
             callback.apply(event);
         });
     }
@@ -247,25 +652,39 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
     @Override
     @Deprecated
     public <A> void persistAll(Iterable<A> events, Procedure<A> callback) {
-        super.persistAll(tagged((Iterable<E>) events), persisted -> {
+        Vector<Tagged> tagged = tagged((Iterable<E>) events);
+        super.persistAll(tagged, onPersisted(tagged.size(), callback));
+    }
+
+    /**
+     * Returns the handler for a write of [count] tagged events, which records how long the write took, and updates
+     * actor state and invokes the callback for each event.
+     */
+    @SuppressWarnings("unchecked")
+    private <A> Procedure<Tagged> onPersisted(int count, Procedure<A> callback) {
+        long started = System.nanoTime();
+        AtomicInteger need = new AtomicInteger(count);
+        return persisted -> {
+            if (need.decrementAndGet() == 0) {
+                type.getMetrics().getPersistDuration().record((System.nanoTime() - started) / 1000);
+            }
             updateState((E) persisted.payload());
+            maybeSaveSnapshot();
             callback.apply((A) persisted.payload());
-        });
+        };
     }
     
     /**
      * Wraps the given event in a Tagged object, instructing the journal to add a tag to it.
      */
     private Tagged tagged(E event) {
-        Set<String> set = new HashSet<>();
-        set.add(tagName);
-        return new Tagged(event, set);
+        return new Tagged(event, type.getTags());
     }
     
     /**
      * Wraps the given event in a Tagged object, instructing the journal to add a tag to it.
      */
-    private Iterable<Tagged> tagged(Iterable<E> event) {
+    private Vector<Tagged> tagged(Iterable<E> event) {
         return Vector.ofAll(event).map(this::tagged);
     }
     
@@ -274,13 +693,42 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
      */
     private void updateState(E evt) {
         state = state.apply(evt);
+        if (bookkeeping != null) {
+            bookkeeping.eventsSinceSnapshot++;
+        }
         havePersisted(evt);
     }
+
+    /**
+     * Saves a snapshot of the current state, if enough events or time have passed since the previous one.
+     */
+    private void maybeSaveSnapshot() {
+        if (!type.isSnapshotting() || bookkeeping.eventsSinceSnapshot == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if ((type.getSnapshotEveryEvents() > 0 && bookkeeping.eventsSinceSnapshot >= type.getSnapshotEveryEvents()) ||
+            (type.getSnapshotInterval() > 0 && now - bookkeeping.lastSnapshot >= type.getSnapshotInterval())) {
+            log.debug("Saving snapshot at {}", lastSequenceNr());
+            saveSnapshot(state);
+            bookkeeping.eventsSinceSnapshot = 0;
+            bookkeeping.lastSnapshot = now;
+        }
+    }
+
+    private void onSnapshotSaved(SnapshotMetadata metadata) {
+        type.getMetrics().getSnapshots().increment();
+        if (type.isDeleteOldSnapshots() && metadata.sequenceNr() > 1) {
+            deleteSnapshots(SnapshotSelectionCriteria.create(metadata.sequenceNr() - 1, Long.MAX_VALUE));
+        }
+    }
     
     /**
      * Subclasses can implement this to run custom code whenever an event was found to have been persisted
      * (both directly after having been emitted and stored, or during recovery).
      * 
+     * When snapshots are enabled, this is not invoked during recovery for events that are covered by the snapshot.
+     * 
      *  The default implementation of this method does nothing.
      */
     protected void havePersisted(E evt) { }
@@ -292,9 +740,92 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
      * You can also invoke this method directly if you want to cleanly stop the actor explicitly.
      */
     protected void passivate() {
+        type.getMetrics().getPassivations().increment();
         context().parent().tell(new ShardRegion.Passivate(STOP), self());
     }
     
+    /**
+     * What the actor keeps track of for command batches, stashed messages and snapshots. Since not every actor class
+     * batches commands or saves snapshots, this is kept apart, so that resident entities of other classes don't carry
+     * these fields while idle.
+     */
+    private static final class Bookkeeping<C,E,S extends AbstractState<E,S>> {
+        /** The batch of commands that is currently being handled, if batching is enabled */
+        private Seq<PendingCommand<C,E,S>> batch = Vector.empty();
+        private Vector<PendingCommand<C,E,S>> pending = Vector.empty();
+        /** Time (System.nanoTime()) at which the handlers for the current batch were invoked */
+        private long batchStarted;
+        private int stashed = 0;
+        /** Time (System.nanoTime()) of the latest snapshot, or of the start of recovery before that has completed */
+        private long lastSnapshot = System.nanoTime();
+        private long eventsSinceSnapshot = 0;
+    }
+
+    /** A command that has been received while another command was being handled, with its handler and sender */
+    private static final class PendingCommand<C,E,S extends AbstractState<E,S>> {
+        private final C command;
+        private final CommandHandler<C,E,S> handler;
+        private final ActorRef sender;
+
+        public PendingCommand(C command, CommandHandler<C,E,S> handler, ActorRef sender) {
+            this.command = command;
+            this.handler = handler;
+            this.sender = sender;
+        }
+    }
+
+    /** The outcome of one command of a batch, evaluated against the state left by the commands before it */
+    private static final class BatchResult<T> {
+        private final ActorRef sender;
+        private final CommandHandler.Results<T> results;
+        private final Option<Object> error;
+        private final boolean alreadyApplied;
+        private final Seq<T> events;
+        private final long seqNr;
+
+        public BatchResult(ActorRef sender, CommandHandler.Results<T> results, long seqNr) {
+            this.sender = sender;
+            this.results = results;
+            this.error = results.getValidationError(seqNr);
+            this.alreadyApplied = error.isEmpty() && results.isAlreadyApplied();
+            this.events = (error.isEmpty() && !alreadyApplied) ? results.getEventsToEmit() : Vector.empty();
+            this.seqNr = seqNr;
+        }
+
+        private void reply(ActorRef self) {
+            if (error.isDefined()) {
+                sender.tell(error.get(), self);
+            } else if (alreadyApplied) {
+                sender.tell(results.getIdempotentReply(seqNr), self);
+            } else {
+                sender.tell(results.getReply(events, seqNr + events.size()), self);
+            }
+        }
+    }
+
+    /**
+     * Internal message, sent to self when the handler of a command in a batch has completed asynchronously, with what's
+     * needed to continue with the rest of the batch.
+     */
+    private static final class BatchStep<C,E,S extends AbstractState<E,S>> {
+        private final ActorRef sender;
+        private final CommandHandler.Results<E> results;
+        private final S state;
+        private final long seqNr;
+        private final Seq<PendingCommand<C,E,S>> remaining;
+        private final Vector<BatchResult<E>> done;
+
+        public BatchStep(ActorRef sender, CommandHandler.Results<E> results, S state, long seqNr,
+            Seq<PendingCommand<C,E,S>> remaining, Vector<BatchResult<E>> done) {
+            this.sender = sender;
+            this.results = results;
+            this.state = state;
+            this.seqNr = seqNr;
+            this.remaining = remaining;
+            this.done = done;
+        }
+    }
+
     private static final class Stop implements Serializable {
         private static final long serialVersionUID = 1L;
     }
@@ -18,30 +18,27 @@ import io.vavr.control.Option;
 public interface CommandHandler<C,E,S extends AbstractState<E,?>> {
     /**
      * Returns a AbstractCommandHandler that tries all of the given handlers in sequence, applying the first one that matches.
+     * 
+     * Handlers that declare a {@link #getCommandType()} are looked up by the class of the command, rather than having
+     * their canHandle() invoked for every command.
      */
     @SafeVarargs
     public static <C,E,S extends AbstractState<E,?>> CommandHandler<C,E,S> all(CommandHandler<C,E,S>... handlers) {
-        return new CommandHandler<C,E,S>() {
-            @Override
-            public boolean canHandle(C cmd) {
-                for (CommandHandler<C,E,S> handler: handlers) {
-                    if (handler.canHandle(cmd)) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-            
-            @Override
-            public CompletionStage<Results<E>> handle(S state, C cmd) {
-                for (CommandHandler<C,E,S> handler: handlers) {
-                    if (handler.canHandle(cmd)) {
-                        return handler.handle(state, cmd);
-                    }
-                }
-                throw new IllegalArgumentException("Trying to handle a command for which canHandle() returned false.");
-            }
-        };
+        return CompositeCommandHandler.of(Vector.of(handlers));
+    }
+    
+    /**
+     * Returns a handler that handles all commands of the given class (and its subclasses) using {@code handler},
+     * and declares that class as its {@link #getCommandType()}. The canHandle() of {@code handler} is not invoked.
+     * 
+     * Use this to combine handlers with {@link #all} or {@link #orElse}, when each of them handles a class of commands:
+     * <pre>
+     * CommandHandler.forType(CreateCommand.class, new CreateHandler())
+     *     .orElse(CommandHandler.forType(UpdateCommand.class, new UpdateHandler()))
+     * </pre>
+     */
+    public static <C,T extends C,E,S extends AbstractState<E,?>> CommandHandler<C,E,S> forType(Class<T> type, CommandHandler<? super T,E,S> handler) {
+        return new TypedCommandHandler<>(type, handler);
     }
     
     /**
@@ -49,6 +46,32 @@ public interface CommandHandler<C,E,S extends AbstractState<E,?>> {
      */
     public abstract boolean canHandle(C cmd);
     
+    /**
+     * Returns the class of commands that this handler handles, if {@link #canHandle(Object)} returns true for exactly
+     * all instances of that class (and its subclasses). Handlers combined using {@link #all} or {@link #orElse}
+     * are then selected by the class of a command, rather than by invoking canHandle() on each of them.
+     * 
+     * Implementations that declare a type MUST return true from canHandle() for every instance of it, and false for
+     * all other commands. The first handler in a combination whose declared type matches a command handles it, so
+     * any handler after it is never considered for that command. A handler's declared type must not change, since
+     * combined handlers remember it per command class.
+     * 
+     * The default implementation returns none, which means that canHandle() decides. Use {@link #forType} to declare
+     * the type of an existing handler.
+     */
+    default public Option<Class<? extends C>> getCommandType() {
+        return Option.none();
+    }
+    
+    /**
+     * Returns the handler that handles the given command, i.e. this handler if {@link #canHandle(Object)} returns
+     * true, or none. Combined handlers return the handler that they would delegate the command to, so callers that
+     * need to know whether a command can be handled before handling it only have to look it up once.
+     */
+    default public Option<CommandHandler<C,E,S>> select(C cmd) {
+        return canHandle(cmd) ? Option.some(this) : Option.none();
+    }
+
     /**
      * Returns the asynchronous result of handling the given command. 
      */
@@ -58,22 +81,7 @@ public interface CommandHandler<C,E,S extends AbstractState<E,?>> {
      * Returns a new command handler that first tries this handler and then {@code other}.
      */
     default public CommandHandler<C,E,S> orElse(CommandHandler<? super C, ? extends E, ? super S> other) {
-        CommandHandler<C, E, S> me = this;
-        return new CommandHandler<C,E,S>() {
-            @Override
-            public boolean canHandle(C cmd) {
-                return me.canHandle(cmd) || other.canHandle(cmd);
-            }
-            
-            @Override
-            public CompletionStage<Results<E>> handle(S state, C cmd) {
-                if (me.canHandle(cmd)) {
-                    return me.handle(state, cmd);
-                } else {
-                    return other.handle(state, cmd).thenApply(Results::cast);
-                }
-            }
-        };
+        return CompositeCommandHandler.of(Vector.<CommandHandler<? super C, ? extends E, ? super S>>of(this, other));
     }
     
     /** 
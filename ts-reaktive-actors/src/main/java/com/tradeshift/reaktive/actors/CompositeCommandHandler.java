@@ -0,0 +1,93 @@
+package com.tradeshift.reaktive.actors;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+/**
+ * A command handler that applies the first of a sequence of handlers that can handle a command, as created by
+ * {@link CommandHandler#all} and {@link CommandHandler#orElse}.
+ *
+ * For each class of command, it remembers which of its handlers can possibly handle commands of that class, based on
+ * {@link CommandHandler#getCommandType()}. Only those handlers are considered for a command, and canHandle() is only
+ * invoked on handlers that don't declare a command type.
+ */
+final class CompositeCommandHandler<C,E,S extends AbstractState<E,?>> implements CommandHandler<C,E,S> {
+    /**
+     * Returns a handler that tries all of the given handlers in sequence. Nested composite handlers are flattened.
+     */
+    @SuppressWarnings("unchecked")
+    static <C,E,S extends AbstractState<E,?>> CompositeCommandHandler<C,E,S> of(Iterable<? extends CommandHandler<? super C, ? extends E, ? super S>> handlers) {
+        Vector<Entry<C,E,S>> entries = Vector.empty();
+        for (CommandHandler<? super C, ? extends E, ? super S> handler: handlers) {
+            if (handler instanceof CompositeCommandHandler) {
+                // Results are covariant in E, and handlers are contravariant in C and S, so these are safe to re-type.
+                entries = entries.appendAll(((CompositeCommandHandler<C,E,S>) handler).entries);
+            } else {
+                entries = entries.append(new Entry<>((CommandHandler<C,E,S>) handler));
+            }
+        }
+        return new CompositeCommandHandler<>(entries);
+    }
+
+    private final Vector<Entry<C,E,S>> entries;
+    private final ConcurrentMap<Class<?>, Seq<Entry<C,E,S>>> candidates = new ConcurrentHashMap<>();
+
+    private CompositeCommandHandler(Vector<Entry<C,E,S>> entries) {
+        this.entries = entries;
+    }
+
+    @Override
+    public boolean canHandle(C cmd) {
+        return select(cmd).isDefined();
+    }
+
+    @Override
+    public CompletionStage<Results<E>> handle(S state, C cmd) {
+        return select(cmd).getOrElseThrow(() -> new IllegalArgumentException("Trying to handle a command for which canHandle() returned false."))
+            .handle(state, cmd);
+    }
+
+    /**
+     * Returns the first handler that can handle the given command.
+     */
+    @Override
+    public Option<CommandHandler<C,E,S>> select(C cmd) {
+        for (Entry<C,E,S> entry: candidates.computeIfAbsent(cmd.getClass(), this::findCandidates)) {
+            if (entry.commandType.isDefined() || entry.handler.canHandle(cmd)) {
+                return Option.some(entry.handler);
+            }
+        }
+        return Option.none();
+    }
+
+    /**
+     * Returns the handlers that can possibly handle commands of the given class, in order.
+     */
+    private Seq<Entry<C,E,S>> findCandidates(Class<?> commandClass) {
+        Vector<Entry<C,E,S>> result = Vector.empty();
+        for (Entry<C,E,S> entry: entries) {
+            if (entry.commandType.isEmpty()) {
+                result = result.append(entry);
+            } else if (entry.commandType.get().isAssignableFrom(commandClass)) {
+                // This handler handles all remaining commands of this class, so later ones would never be reached.
+                return result.append(entry);
+            }
+        }
+        return result;
+    }
+
+    private static final class Entry<C,E,S extends AbstractState<E,?>> {
+        private final CommandHandler<C,E,S> handler;
+        private final Option<Class<?>> commandType;
+
+        public Entry(CommandHandler<C,E,S> handler) {
+            this.handler = handler;
+            this.commandType = Option.narrow(handler.getCommandType());
+        }
+    }
+}
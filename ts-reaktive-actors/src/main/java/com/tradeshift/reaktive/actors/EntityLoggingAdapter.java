@@ -0,0 +1,76 @@
+package com.tradeshift.reaktive.actors;
+
+import akka.actor.ActorRef;
+import akka.event.BusLogging;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+/**
+ * Logs on behalf of one actor instance, with its path as log source, while sharing the log level checks and logger
+ * class of a {@link BusLogging} that is kept once per actor class.
+ *
+ * The actor path is only rendered once something is actually logged, so resident entities that don't log don't keep
+ * it in memory.
+ */
+final class EntityLoggingAdapter implements LoggingAdapter {
+    private final BusLogging shared;
+    private final ActorRef self;
+    private String logSource;
+
+    public EntityLoggingAdapter(BusLogging shared, ActorRef self) {
+        this.shared = shared;
+        this.self = self;
+    }
+
+    private String logSource() {
+        if (logSource == null) {
+            logSource = self.path().toString();
+        }
+        return logSource;
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return shared.isErrorEnabled();
+    }
+
+    @Override
+    public boolean isWarningEnabled() {
+        return shared.isWarningEnabled();
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return shared.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return shared.isDebugEnabled();
+    }
+
+    @Override
+    public void notifyError(String message) {
+        shared.bus().publish(new Logging.Error(logSource(), shared.logClass(), message));
+    }
+
+    @Override
+    public void notifyError(Throwable cause, String message) {
+        shared.bus().publish(new Logging.Error(cause, logSource(), shared.logClass(), message));
+    }
+
+    @Override
+    public void notifyWarning(String message) {
+        shared.bus().publish(new Logging.Warning(logSource(), shared.logClass(), message));
+    }
+
+    @Override
+    public void notifyInfo(String message) {
+        shared.bus().publish(new Logging.Info(logSource(), shared.logClass(), message));
+    }
+
+    @Override
+    public void notifyDebug(String message) {
+        shared.bus().publish(new Logging.Debug(logSource(), shared.logClass(), message));
+    }
+}
@@ -0,0 +1,147 @@
+package com.tradeshift.reaktive.actors;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+
+/**
+ * Finds the most frequently offered keys using a fixed number of counters ("space-saving" algorithm). When all counters
+ * are in use, a new key takes over the counter of the least frequent key, adding to its count. Counts are therefore
+ * overestimated by at most the smallest count, but a key that's offered more often than that is never missed.
+ *
+ * Counters are kept in buckets of equal count, ordered by count ("stream-summary"), so that both incrementing a key and
+ * finding the least frequent one take constant time.
+ *
+ * This class is not thread-safe.
+ */
+final class HotKeySketch {
+    /** The counters that currently have the same count, as a linked list, in a linked list of buckets by count */
+    private static final class Bucket {
+        private final long count;
+        private Bucket prev;
+        private Bucket next;
+        private Counter first;
+
+        public Bucket(long count) {
+            this.count = count;
+        }
+    }
+
+    private static final class Counter {
+        private String key;
+        private Bucket bucket;
+        private Counter prev;
+        private Counter next;
+
+        public Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    /** The bucket with the lowest count, or null if there are no counters */
+    private Bucket min;
+
+    public HotKeySketch(int capacity) {
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    public void offer(String key) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            increment(counter);
+        } else if (counters.size() < capacity) {
+            counter = new Counter(key);
+            counters.put(key, counter);
+            if (min == null || min.count != 1) {
+                Bucket ones = new Bucket(1);
+                ones.next = min;
+                if (min != null) {
+                    min.prev = ones;
+                }
+                min = ones;
+            }
+            attach(counter, min);
+        } else {
+            counter = min.first;
+            counters.remove(counter.key);
+            counter.key = key;
+            counters.put(key, counter);
+            increment(counter);
+        }
+    }
+
+    public boolean isEmpty() {
+        return counters.isEmpty();
+    }
+
+    /**
+     * Returns the [n] most frequent keys with their (estimated) counts, most frequent first, and starts counting anew.
+     */
+    public Seq<Tuple2<String, Long>> drainTop(int n) {
+        Vector<Tuple2<String, Long>> result = Vector.empty();
+        for (Bucket b = min; b != null; b = b.next) {
+            for (Counter c = b.first; c != null; c = c.next) {
+                result = result.prepend(Tuple.of(c.key, b.count));
+            }
+        }
+        counters.clear();
+        min = null;
+        return result.take(n);
+    }
+
+    private void increment(Counter counter) {
+        Bucket from = counter.bucket;
+        Bucket to = from.next;
+        if (to == null || to.count != from.count + 1) {
+            to = new Bucket(from.count + 1);
+            to.prev = from;
+            to.next = from.next;
+            if (from.next != null) {
+                from.next.prev = to;
+            }
+            from.next = to;
+        }
+        detach(counter);
+        attach(counter, to);
+    }
+
+    private static void attach(Counter counter, Bucket bucket) {
+        counter.bucket = bucket;
+        counter.prev = null;
+        counter.next = bucket.first;
+        if (bucket.first != null) {
+            bucket.first.prev = counter;
+        }
+        bucket.first = counter;
+    }
+
+    /** Removes the counter from its bucket, and removes the bucket if that was its last counter */
+    private void detach(Counter counter) {
+        Bucket bucket = counter.bucket;
+        if (counter.prev != null) {
+            counter.prev.next = counter.next;
+        } else {
+            bucket.first = counter.next;
+        }
+        if (counter.next != null) {
+            counter.next.prev = counter.prev;
+        }
+        if (bucket.first == null) {
+            if (bucket.prev != null) {
+                bucket.prev.next = bucket.next;
+            } else {
+                min = bucket.next;
+            }
+            if (bucket.next != null) {
+                bucket.next.prev = bucket.prev;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.tradeshift.reaktive.actors;
+
+import java.io.Serializable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.typesafe.config.Config;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.Props;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Map;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import kamon.Kamon;
+import kamon.metric.GaugeMetric;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Reports the entities and shards of a {@link PersistentActorSharding} that receive the most messages, as seen by the
+ * shard region on this node. A sample of routed messages is counted in a fixed number of counters, so memory use does
+ * not depend on the number of entities.
+ *
+ * Every interval, the hottest entities and shards are published as Kamon gauges (in messages per second, tagged with
+ * their id and rank), and counting starts anew. Send {@link GetHotKeys} to receive the latest figures as {@link HotKeys}.
+ */
+public class HotKeyTracker extends AbstractActorWithTimers {
+    private static final GaugeMetric entityGauge = Kamon.gauge("persistent-actor-sharding.hot-entity");
+    private static final GaugeMetric shardGauge = Kamon.gauge("persistent-actor-sharding.hot-shard");
+
+    /**
+     * Samples routed messages into the sketches. Invoked from the message extractor, so it must be thread-safe.
+     *
+     * Every thread that routes messages counts into its own sketches, which are only locked by another thread when
+     * they're drained. Sketches of threads that haven't routed anything during an interval are dropped when draining,
+     * and registered again once their thread routes a message.
+     */
+    static class Sampler {
+        private final int sampleRate;
+        private final int capacity;
+        private final Queue<Sketches> all = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<Sketches> local = ThreadLocal.withInitial(Sketches::new);
+
+        private class Sketches {
+            private final HotKeySketch entities = new HotKeySketch(capacity);
+            private final HotKeySketch shards = new HotKeySketch(capacity);
+            private boolean registered = false;
+        }
+
+        public Sampler(Config config) {
+            this.sampleRate = config.getInt("sample-rate");
+            this.capacity = config.getInt("capacity");
+        }
+
+        public void messageRouted(String entityId, String shardId) {
+            if (sampleRate <= 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+                Sketches sketches = local.get();
+                synchronized (sketches) {
+                    if (!sketches.registered) {
+                        sketches.registered = true;
+                        all.add(sketches);
+                    }
+                    sketches.entities.offer(entityId);
+                    sketches.shards.offer(shardId);
+                }
+            }
+        }
+
+        /** Returns the [n] most sampled entities and shards of all threads, and starts counting anew. */
+        public HotKeys drainTop(int n) {
+            Map<String, Long> entities = HashMap.empty();
+            Map<String, Long> shards = HashMap.empty();
+            for (Sketches sketches: all) {
+                synchronized (sketches) {
+                    if (sketches.entities.isEmpty()) {
+                        sketches.registered = false;
+                        all.remove(sketches);
+                    }
+                    entities = merge(entities, sketches.entities.drainTop(capacity));
+                    shards = merge(shards, sketches.shards.drainTop(capacity));
+                }
+            }
+            return new HotKeys(top(entities, n), top(shards, n));
+        }
+
+        private static Map<String, Long> merge(Map<String, Long> counts, Seq<Tuple2<String, Long>> more) {
+            return more.foldLeft(counts, (map, t) -> map.put(t._1, t._2, Long::sum));
+        }
+
+        private static Seq<Tuple2<String, Long>> top(Map<String, Long> counts, int n) {
+            return Vector.ofAll(counts).sortBy(t -> -t._2).take(n);
+        }
+    }
+
+    static Props props(String typeName, Sampler sampler, Config config) {
+        return Props.create(HotKeyTracker.class, () -> new HotKeyTracker(typeName, sampler, config));
+    }
+
+    private final String typeName;
+    private final Sampler sampler;
+    private final int top;
+    private final double intervalSeconds;
+
+    private HotKeys latest = new HotKeys(Vector.empty(), Vector.empty());
+
+    private HotKeyTracker(String typeName, Sampler sampler, Config config) {
+        this.typeName = typeName;
+        this.sampler = sampler;
+        this.top = config.getInt("top");
+        java.time.Duration interval = config.getDuration("interval");
+        this.intervalSeconds = interval.toMillis() / 1000.0;
+        timers().startPeriodicTimer("tick", Tick.instance, Duration.fromNanos(interval.toNanos()));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+            .match(Tick.class, msg -> report())
+            .match(GetHotKeys.class, msg -> sender().tell(latest, self()))
+            .build();
+    }
+
+    @Override
+    public void postStop() {
+        publish(latest, new HotKeys(Vector.empty(), Vector.empty()));
+    }
+
+    private void report() {
+        HotKeys sampled = sampler.drainTop(top);
+        HotKeys next = new HotKeys(perSecond(sampled.entities), perSecond(sampled.shards));
+        publish(latest, next);
+        latest = next;
+    }
+
+    private Seq<Tuple2<String, Long>> perSecond(Seq<Tuple2<String, Long>> samples) {
+        return samples.map(t -> t.map2(count -> Math.round(count * sampler.sampleRate / intervalSeconds)));
+    }
+
+    /** Replaces the previously published gauges by the current ones */
+    private void publish(HotKeys previous, HotKeys current) {
+        previous.entities.zipWithIndex().forEach(t -> entityGauge.remove(tags("entity", t._1._1, t._2)));
+        previous.shards.zipWithIndex().forEach(t -> shardGauge.remove(tags("shard", t._1._1, t._2)));
+        current.entities.zipWithIndex().forEach(t -> entityGauge.refine(tags("entity", t._1._1, t._2)).set(t._1._2));
+        current.shards.zipWithIndex().forEach(t -> shardGauge.refine(tags("shard", t._1._1, t._2)).set(t._1._2));
+    }
+
+    private java.util.Map<String, String> tags(String kind, String id, int index) {
+        return HashMap.of("type", typeName, kind, id, "rank", String.valueOf(index + 1)).toJavaMap();
+    }
+
+    /**
+     * Message that can be sent to this actor to query the hottest entities and shards of the latest interval.
+     *
+     * A HotKeys message will be sent back.
+     */
+    public static class GetHotKeys implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public static final GetHotKeys instance = new GetHotKeys();
+        private GetHotKeys() {}
+    }
+
+    public static class HotKeys implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Seq<Tuple2<String, Long>> entities;
+        private final Seq<Tuple2<String, Long>> shards;
+
+        public HotKeys(Seq<Tuple2<String, Long>> entities, Seq<Tuple2<String, Long>> shards) {
+            this.entities = entities;
+            this.shards = shards;
+        }
+
+        /** Returns the entity ids that received the most messages, with their estimated messages per second, hottest first. */
+        public Seq<Tuple2<String, Long>> getEntities() {
+            return entities;
+        }
+
+        /** Returns the shard ids that received the most messages, with their estimated messages per second, hottest first. */
+        public Seq<Tuple2<String, Long>> getShards() {
+            return shards;
+        }
+    }
+
+    private static class Tick {
+        private static final Tick instance = new Tick();
+    }
+}
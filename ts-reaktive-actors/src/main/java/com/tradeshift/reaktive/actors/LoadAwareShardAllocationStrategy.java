@@ -0,0 +1,129 @@
+package com.tradeshift.reaktive.actors;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.cluster.sharding.ShardCoordinator;
+import akka.dispatch.Futures;
+import io.vavr.Tuple;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Vector;
+import scala.collection.immutable.IndexedSeq;
+import scala.concurrent.Future;
+
+/**
+ * Allocates and rebalances shards based on the rate of messages that are routed to them, rather than on the number of
+ * shards per node.
+ *
+ * Message rates are counted by the shard region of the node on which the coordinator runs, as messages pass through its
+ * {@link PersistentActorSharding} message extractor. This assumes that incoming traffic is spread over all nodes
+ * evenly enough for one node's view to be representative. The rates are updated every time the coordinator asks
+ * for a rebalance (akka.cluster.sharding.rebalance-interval).
+ */
+public class LoadAwareShardAllocationStrategy extends ShardCoordinator.AbstractShardAllocationStrategy {
+    private final double rebalanceThreshold;
+    private final int maxSimultaneousRebalance;
+    private final ConcurrentMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    /** Message counts at the previous rebalance, only accessed by the coordinator */
+    private HashMap<String, Long> previousCounts = HashMap.empty();
+    /** Messages per rebalance interval for each shard, only accessed by the coordinator */
+    private HashMap<String, Long> rates = HashMap.empty();
+
+    /**
+     * Creates the strategy from the ts-reaktive.actors.sharding.load-aware config section.
+     */
+    public static LoadAwareShardAllocationStrategy fromConfig(Config config) {
+        return new LoadAwareShardAllocationStrategy(config.getDouble("rebalance-threshold"), config.getInt("max-simultaneous-rebalance"));
+    }
+
+    /**
+     * @param rebalanceThreshold Rebalance once the busiest node receives this fraction more messages than the average node
+     * @param maxSimultaneousRebalance Maximum number of shards to move at the same time
+     */
+    public LoadAwareShardAllocationStrategy(double rebalanceThreshold, int maxSimultaneousRebalance) {
+        this.rebalanceThreshold = rebalanceThreshold;
+        this.maxSimultaneousRebalance = maxSimultaneousRebalance;
+    }
+
+    /**
+     * Registers that a message has been routed to the given shard.
+     */
+    public void messageRouted(String shardId) {
+        counts.computeIfAbsent(shardId, s -> new LongAdder()).increment();
+    }
+
+    @Override
+    public Future<ActorRef> allocateShard(ActorRef requester, String shardId, Map<ActorRef, IndexedSeq<String>> currentShardAllocations) {
+        return Futures.successful(leastLoaded(currentShardAllocations));
+    }
+
+    @Override
+    public Future<Set<String>> rebalance(Map<ActorRef, IndexedSeq<String>> currentShardAllocations, Set<String> rebalanceInProgress) {
+        updateRates();
+        Set<String> result = new HashSet<>();
+        if (rebalanceInProgress.isEmpty() && currentShardAllocations.size() > 1) {
+            ActorRef busiest = busiest(currentShardAllocations);
+            ActorRef idlest = leastLoaded(currentShardAllocations);
+            long busiestLoad = load(currentShardAllocations.get(busiest));
+            long idlestLoad = load(currentShardAllocations.get(idlest));
+            double average = ((double) Vector.ofAll(currentShardAllocations.values()).map(this::load).sum().longValue()) / currentShardAllocations.size();
+            if (busiestLoad > average * (1 + rebalanceThreshold)) {
+                for (String shard: shards(currentShardAllocations.get(busiest)).sortBy(s -> -rate(s))) {
+                    long rate = rate(shard);
+                    // Only move a shard if that makes the busiest node's load closer to the idlest one's
+                    if (result.size() < maxSimultaneousRebalance && rate > 0 && rate < busiestLoad - idlestLoad) {
+                        result.add(shard);
+                        busiestLoad -= rate;
+                        idlestLoad += rate;
+                    }
+                }
+            }
+        }
+        return Futures.successful(result);
+    }
+
+    /**
+     * Returns the messages per rebalance interval of the given shard.
+     */
+    long rate(String shardId) {
+        return rates.get(shardId).getOrElse(0L);
+    }
+
+    /**
+     * Computes the message rate of each shard since the previous invocation.
+     */
+    void updateRates() {
+        HashMap<String, Long> current = HashMap.ofAll(counts).mapValues(LongAdder::sum);
+        rates = current.map((shard, count) -> Tuple.of(shard, count - previousCounts.get(shard).getOrElse(0L)));
+        previousCounts = current;
+    }
+
+    private long load(IndexedSeq<String> shards) {
+        return shards(shards).map(this::rate).sum().longValue();
+    }
+
+    private ActorRef leastLoaded(Map<ActorRef, IndexedSeq<String>> allocations) {
+        return Vector.ofAll(allocations.entrySet())
+            .minBy((a, b) -> {
+                int byLoad = Long.compare(load(a.getValue()), load(b.getValue()));
+                return (byLoad != 0) ? byLoad : Integer.compare(a.getValue().size(), b.getValue().size());
+            })
+            .get().getKey();
+    }
+
+    private ActorRef busiest(Map<ActorRef, IndexedSeq<String>> allocations) {
+        return Vector.ofAll(allocations.entrySet()).maxBy(e -> load(e.getValue())).get().getKey();
+    }
+
+    private static Vector<String> shards(IndexedSeq<String> shards) {
+        return Vector.range(0, shards.size()).map(shards::apply);
+    }
+}
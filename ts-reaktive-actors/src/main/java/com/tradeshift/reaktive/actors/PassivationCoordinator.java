@@ -0,0 +1,153 @@
+package com.tradeshift.reaktive.actors;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import kamon.Kamon;
+import kamon.metric.Gauge;
+
+/**
+ * Keeps the number of {@link AbstractStatefulPersistentActor} entities that are active on this node below
+ * ts-reaktive.actors.passivation.max-active-entities, by passivating the least valuable entity when a new one starts.
+ *
+ * An entity's value is the number of commands it has handled, times the time its recovery took (plus 1 ms), on top of
+ * the value of the latest evicted entity ("GreedyDual-Size-Frequency"). Entities that are used often, or are
+ * expensive to recover, are therefore kept longer, while idle entities eventually lose out to newer ones.
+ *
+ * Entities still passivate themselves after ts-reaktive.actors.passivate-timeout. An entity that is handling commands
+ * when it's evicted only passivates once it has handled them.
+ *
+ * Handled commands are only counted when they happen, without locking. Entities are re-valued lazily, when they come up
+ * as the least valuable entity while choosing one to evict, which is the only time the coordinator takes its lock
+ * (besides entities starting and stopping).
+ */
+final class PassivationCoordinator implements Extension {
+    private static class Id extends AbstractExtensionId<PassivationCoordinator> implements ExtensionIdProvider {
+        private final static Id INSTANCE = new Id();
+
+        private Id() {}
+
+        public Id lookup() {
+            return INSTANCE;
+        }
+
+        public PassivationCoordinator createExtension(ExtendedActorSystem system) {
+            return new PassivationCoordinator(system.settings().config().getInt("ts-reaktive.actors.passivation.max-active-entities"));
+        }
+    }
+
+    public static PassivationCoordinator get(akka.actor.ActorSystem system) {
+        return Id.INSTANCE.get(system);
+    }
+
+    /** Sent to an entity to have it passivate itself */
+    static final class Evict implements Serializable {
+        private static final long serialVersionUID = 1L;
+        static final Evict instance = new Evict();
+        private Evict() {}
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final ActorRef actor;
+        private final long cost;
+        private final PersistentActorMetrics metrics;
+        private final long order;
+        /** The number of handled commands. Only incremented by the entity itself, and hence by one thread at a time. */
+        private volatile long hits = 1;
+        /** The number of handled commands that [priority] is based on */
+        private long rankedHits = 1;
+        private double priority;
+
+        public Entry(ActorRef actor, long cost, PersistentActorMetrics metrics, long order) {
+            this.actor = actor;
+            this.cost = cost;
+            this.metrics = metrics;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byPriority = Double.compare(priority, other.priority);
+            return (byPriority != 0) ? byPriority : Long.compare(order, other.order);
+        }
+    }
+
+    private final int maxActiveEntities;
+    private final Gauge activeEntities = Kamon.gauge("persistent-actor.active-entities");
+    private final Map<ActorRef, Entry> entries = new ConcurrentHashMap<>();
+    /** Only accessed while holding the lock */
+    private final TreeSet<Entry> byPriority = new TreeSet<>();
+    /** The priority of the latest evicted entity, which new and touched entities are valued on top of */
+    private double floor = 0;
+    private long order = 0;
+
+    PassivationCoordinator(int maxActiveEntities) {
+        this.maxActiveEntities = maxActiveEntities;
+    }
+
+    public boolean isEnabled() {
+        return maxActiveEntities > 0;
+    }
+
+    /**
+     * Registers an entity that has completed recovery, evicting the least valuable other entities if there now are too many.
+     */
+    public synchronized void activated(ActorRef actor, long recoveryMillis, PersistentActorMetrics metrics) {
+        if (entries.containsKey(actor)) {
+            return;
+        }
+        Entry entry = new Entry(actor, recoveryMillis + 1, metrics, order++);
+        entry.priority = floor + entry.cost;
+        entries.put(actor, entry);
+        byPriority.add(entry);
+        while (entries.size() > maxActiveEntities) {
+            // The new entity has yet to handle the command that started it, so it is never evicted right away.
+            Entry victim = byPriority.first();
+            if (victim == entry) {
+                victim = byPriority.higher(entry);
+            }
+            byPriority.remove(victim);
+            long hits = victim.hits;
+            if (hits != victim.rankedHits) {
+                // The victim has handled commands since it was valued, so value it again and look further.
+                victim.rankedHits = hits;
+                victim.priority = floor + hits * victim.cost;
+                byPriority.add(victim);
+                continue;
+            }
+            entries.remove(victim.actor);
+            floor = victim.priority;
+            victim.metrics.getEvictions().increment();
+            victim.actor.tell(Evict.instance, ActorRef.noSender());
+        }
+        activeEntities.set(entries.size());
+    }
+
+    /**
+     * Registers that an entity has handled a command. Must only be invoked by the entity itself.
+     */
+    public void touched(ActorRef actor) {
+        Entry entry = entries.get(actor);
+        if (entry != null) {
+            entry.hits++;
+        }
+    }
+
+    /**
+     * Unregisters an entity that has stopped.
+     */
+    public synchronized void stopped(ActorRef actor) {
+        Entry entry = entries.remove(actor);
+        if (entry != null) {
+            byPriority.remove(entry);
+            activeEntities.set(entries.size());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.tradeshift.reaktive.actors;
+
+import io.vavr.collection.HashMap;
+import kamon.Kamon;
+import kamon.metric.Counter;
+import kamon.metric.Histogram;
+import kamon.metric.MeasurementUnit;
+
+/**
+ * Kamon metrics for one type of {@link AbstractStatefulPersistentActor}, tagged by the actor type.
+ */
+public class PersistentActorMetrics {
+    /** The duration, in milliseconds, of recovering an actor from its snapshot and journal */
+    private final Histogram recoveryDuration;
+    /** The number of events that were replayed from the journal while recovering an actor */
+    private final Histogram recoveryEvents;
+    private final Counter snapshots;
+    private final Counter snapshotFailures;
+    /** The number of commands that were waiting, each time a command had to wait for an earlier one to complete */
+    private final Histogram stashDepth;
+    /** The duration, in microseconds, from invoking a command handler until its results arrive back at the actor */
+    private final Histogram handlerDuration;
+    /** The duration, in microseconds, of persisting the events emitted for a command */
+    private final Histogram persistDuration;
+    private final Counter commands;
+    private final Counter validationFailures;
+    private final Counter idempotentCommands;
+    private final Counter passivations;
+    /** The number of actors that were passivated to stay below ts-reaktive.actors.passivation.max-active-entities */
+    private final Counter evictions;
+
+    public PersistentActorMetrics(String name) {
+        java.util.Map<String, String> tags = HashMap.of("persistent-actor", name).toJavaMap();
+        this.recoveryDuration = Kamon.histogram("persistent-actor.recovery-duration", MeasurementUnit.time().milliseconds()).refine(tags);
+        this.recoveryEvents = Kamon.histogram("persistent-actor.recovery-events").refine(tags);
+        this.snapshots = Kamon.counter("persistent-actor.snapshots").refine(tags);
+        this.snapshotFailures = Kamon.counter("persistent-actor.snapshot-failures").refine(tags);
+        this.stashDepth = Kamon.histogram("persistent-actor.stash-depth").refine(tags);
+        this.handlerDuration = Kamon.histogram("persistent-actor.handler-duration", MeasurementUnit.time().microseconds()).refine(tags);
+        this.persistDuration = Kamon.histogram("persistent-actor.persist-duration", MeasurementUnit.time().microseconds()).refine(tags);
+        this.commands = Kamon.counter("persistent-actor.commands").refine(tags);
+        this.validationFailures = Kamon.counter("persistent-actor.validation-failures").refine(tags);
+        this.idempotentCommands = Kamon.counter("persistent-actor.idempotent-commands").refine(tags);
+        this.passivations = Kamon.counter("persistent-actor.passivations").refine(tags);
+        this.evictions = Kamon.counter("persistent-actor.evictions").refine(tags);
+    }
+
+    public Histogram getRecoveryDuration() {
+        return recoveryDuration;
+    }
+
+    public Histogram getRecoveryEvents() {
+        return recoveryEvents;
+    }
+
+    public Counter getSnapshots() {
+        return snapshots;
+    }
+
+    public Counter getSnapshotFailures() {
+        return snapshotFailures;
+    }
+
+    public Histogram getStashDepth() {
+        return stashDepth;
+    }
+
+    public Histogram getHandlerDuration() {
+        return handlerDuration;
+    }
+
+    public Histogram getPersistDuration() {
+        return persistDuration;
+    }
+
+    public Counter getCommands() {
+        return commands;
+    }
+
+    public Counter getValidationFailures() {
+        return validationFailures;
+    }
+
+    public Counter getIdempotentCommands() {
+        return idempotentCommands;
+    }
+
+    public Counter getPassivations() {
+        return passivations;
+    }
+
+    public Counter getEvictions() {
+        return evictions;
+    }
+}
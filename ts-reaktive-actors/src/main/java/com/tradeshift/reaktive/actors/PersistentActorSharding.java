@@ -1,14 +1,31 @@
 package com.tradeshift.reaktive.actors;
 
+import static akka.pattern.PatternsCS.ask;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 
+import com.tradeshift.reaktive.akka.SharedActorMaterializer;
+import com.typesafe.config.Config;
+
+import akka.Done;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
 import akka.actor.Props;
 import akka.cluster.sharding.ClusterSharding;
 import akka.cluster.sharding.ClusterShardingSettings;
 import akka.cluster.sharding.ShardRegion.MessageExtractor;
 import akka.persistence.AbstractPersistentActor;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.Timeout;
+import io.vavr.collection.HashMap;
+import io.vavr.control.Option;
+import kamon.Kamon;
+import kamon.metric.Counter;
 
 /**
  * Base class for setting up sharding of persistent actors that:
@@ -23,7 +40,11 @@ public class PersistentActorSharding<C> {
     private final Props props;
     private final Function<C, String> getEntityId;
     private final int numberOfShards;
+    private final ShardIdStrategy shardIdStrategy;
     private String typeName;
+    private volatile LoadAwareShardAllocationStrategy loadAwareAllocation = null;
+    private volatile HotKeyTracker.Sampler hotKeySampler = null;
+    private Option<ActorRef> hotKeyTracker = Option.none();
     
     /**
      * Creates a PersistentActorSharding for an actor that is created according to [props]. The actor must be a subclass of {@link AbstractPersistentActor}.
@@ -53,6 +74,22 @@ public class PersistentActorSharding<C> {
         return new PersistentActorSharding<>(typeName, props, getEntityId, numberOfShards);
     }
     
+    /**
+     * Creates a PersistentActorSharding for an actor that is created according to [props]. The actor must be a subclass of {@link AbstractPersistentActor}.
+     *
+     * @param typeName    Actor name of the top-level shard region actor. This must be unique for each PersistentActorSharding type.
+     * @param props       Props that is used to instantiate child actors on shards
+     * @param getEntityId Function that returns the entityId (=persistenceId, and child actor name) that a command is routed to. 
+     *                    This can be a UUID or the aggregate ID of your entity, possibly prefixed with a fixed static string to differentiate it
+     *                    from other types in a shared journal.
+     * @param numberOfShards Number of shards to divide all entity/persistence ids into. This can not be changed after the first run.
+     * @param shardIdStrategy How to divide entity ids into shards, e.g. {@link ShardIdStrategy#MURMUR3}. This can not be changed after the first run.
+     */
+    public static <C> PersistentActorSharding<C> of(String typeName, Props props, Function<C, String> getEntityId, int numberOfShards,
+        ShardIdStrategy shardIdStrategy) {
+        return new PersistentActorSharding<>(typeName, props, getEntityId, numberOfShards, shardIdStrategy);
+    }
+    
     /**
      * @deprecated Use the variant where the lambda returns the whole whole entityId, since then the implementation is in full control.  
      */
@@ -62,10 +99,16 @@ public class PersistentActorSharding<C> {
     }
     
     protected PersistentActorSharding(String typeName, Props props, Function<C, String> getEntityId, int numberOfShards) {
+        this(typeName, props, getEntityId, numberOfShards, ShardIdStrategy.HASH_CODE);
+    }
+    
+    protected PersistentActorSharding(String typeName, Props props, Function<C, String> getEntityId, int numberOfShards,
+        ShardIdStrategy shardIdStrategy) {
         this.typeName = typeName;
         this.props = props;
         this.getEntityId = getEntityId;
         this.numberOfShards = numberOfShards;
+        this.shardIdStrategy = shardIdStrategy;
     }
 
     private final MessageExtractor messageExtractor = new MessageExtractor() {
@@ -76,7 +119,17 @@ public class PersistentActorSharding<C> {
 
         @Override
         public String shardId(Object command) {
-            return getShardId(getEntityId(command));
+            String entityId = getEntityId(command);
+            String shardId = getShardId(entityId);
+            LoadAwareShardAllocationStrategy allocation = loadAwareAllocation;
+            if (allocation != null) {
+                allocation.messageRouted(shardId);
+            }
+            HotKeyTracker.Sampler sampler = hotKeySampler;
+            if (sampler != null) {
+                sampler.messageRouted(entityId, shardId);
+            }
+            return shardId;
         }
         
         @Override
@@ -90,21 +143,101 @@ public class PersistentActorSharding<C> {
     /**
      * Starts the cluster router (ShardRegion) for this persistent actor type on the given actor system,
      * and returns its ActorRef. If it's already running, just returns the ActorRef.
+     * 
+     * Shards are allocated according to ts-reaktive.actors.sharding.allocation-strategy. If
+     * ts-reaktive.actors.sharding.hot-keys is enabled, a {@link HotKeyTracker} is started as well.
      */
     public ActorRef shardRegion(ActorSystem system) {
-        return ClusterSharding.get(system).start(
-            typeName,
-            props,
-            ClusterShardingSettings.create(system),
-            messageExtractor);
+        Config config = system.settings().config().getConfig("ts-reaktive.actors.sharding");
+        if (config.getBoolean("hot-keys.enabled")) {
+            startHotKeyTracker(system, config.getConfig("hot-keys"));
+        }
+        String strategy = config.getString("allocation-strategy");
+        switch (strategy) {
+        case "default":
+            return ClusterSharding.get(system).start(
+                typeName,
+                props,
+                ClusterShardingSettings.create(system),
+                messageExtractor);
+        case "load-aware":
+            synchronized (this) {
+                if (loadAwareAllocation == null) {
+                    loadAwareAllocation = LoadAwareShardAllocationStrategy.fromConfig(config.getConfig("load-aware"));
+                }
+            }
+            return ClusterSharding.get(system).start(
+                typeName,
+                props,
+                ClusterShardingSettings.create(system),
+                messageExtractor,
+                loadAwareAllocation,
+                PoisonPill.getInstance());
+        default:
+            throw new IllegalArgumentException("Unknown ts-reaktive.actors.sharding.allocation-strategy: " + strategy);
+        }
+    }
+    
+    private synchronized void startHotKeyTracker(ActorSystem system, Config config) {
+        if (hotKeyTracker.isEmpty()) {
+            hotKeySampler = new HotKeyTracker.Sampler(config);
+            hotKeyTracker = Option.some(system.actorOf(HotKeyTracker.props(typeName, hotKeySampler, config), typeName + "-hot-keys"));
+        }
+    }
+    
+    /**
+     * Returns the {@link HotKeyTracker} for this sharding type, if ts-reaktive.actors.sharding.hot-keys is enabled and
+     * {@link #shardRegion(ActorSystem)} has been invoked. Send it {@link HotKeyTracker.GetHotKeys} to find out which
+     * entities and shards receive the most messages.
+     */
+    public synchronized Option<ActorRef> getHotKeyTracker() {
+        return hotKeyTracker;
+    }
+    
+    /**
+     * Starts and recovers the entities with the given ids, e.g. the entities that were busiest before a restart, so
+     * that the first commands to them don't have to wait for recovery. Entities are started at most
+     * ts-reaktive.actors.sharding.warm-up.max-per-second at a time, of which at most warm-up.parallelism are recovering
+     * at the same time. Progress is counted in the persistent-actor-sharding.warm-up Kamon counter.
+     * 
+     * The actors must reply to {@link WarmUp}, which {@link AbstractStatefulPersistentActor} does once it has recovered.
+     * Entities that fail to reply within warm-up.timeout are counted as failed, but don't fail the returned stage.
+     * A warmed-up entity is still passivated after its usual passivate-timeout if it receives no commands.
+     */
+    public CompletionStage<Done> warmUp(ActorSystem system, Source<String, ?> entityIds) {
+        Config config = system.settings().config().getConfig("ts-reaktive.actors.sharding.warm-up");
+        return warmUp(system, shardRegion(system), entityIds, config.getInt("parallelism"), config.getInt("max-per-second"),
+            config.getDuration("timeout"));
+    }
+
+    CompletionStage<Done> warmUp(ActorSystem system, ActorRef region, Source<String, ?> entityIds, int parallelism, int maxPerSecond,
+        Duration timeout) {
+        Counter recovered = Kamon.counter("persistent-actor-sharding.warm-up").refine(HashMap.of("type", typeName, "result", "recovered").toJavaMap());
+        Counter failed = Kamon.counter("persistent-actor-sharding.warm-up").refine(HashMap.of("type", typeName, "result", "failed").toJavaMap());
+        Timeout askTimeout = Timeout.create(timeout);
+        return entityIds
+            .throttle(maxPerSecond, Duration.ofSeconds(1))
+            .mapAsyncUnordered(parallelism, id -> ask(region, new WarmUp(id), askTimeout).handle((reply, x) -> {
+                if (x == null) {
+                    recovered.increment();
+                } else {
+                    system.log().warning("Warming up {} failed: {}", id, x);
+                    failed.increment();
+                }
+                return Done.getInstance();
+            }))
+            .runWith(Sink.ignore(), SharedActorMaterializer.get(system));
     }
     
     /**
      * Returns the entityId (=persistenceId, and actor name) to which the given command should be routed.
-     * The argument must be an instance of {@code C}.
+     * The argument must be an instance of {@code C}, or a {@link WarmUp} message.
      */
     @SuppressWarnings("unchecked")
     public String getEntityId(Object command) {
+        if (command instanceof WarmUp) {
+            return ((WarmUp) command).getEntityId();
+        }
         return getEntityId.apply((C) command);
     }
     
@@ -112,6 +245,24 @@ public class PersistentActorSharding<C> {
      * Returns the shard on which the given entityId should be placed
      */
     public String getShardId(String entityId) {
-        return String.valueOf(entityId.hashCode() % numberOfShards);
+        return String.valueOf(shardIdStrategy.getShard(entityId, numberOfShards));
+    }
+    
+    /**
+     * Message that is routed to the entity with the given id, starting it if needed. The entity should reply once it
+     * has recovered, which {@link AbstractStatefulPersistentActor} does by sending back Done.
+     */
+    public static class WarmUp implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String entityId;
+
+        public WarmUp(String entityId) {
+            this.entityId = entityId;
+        }
+
+        public String getEntityId() {
+            return entityId;
+        }
     }
 }
@@ -0,0 +1,152 @@
+package com.tradeshift.reaktive.actors;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.event.BusLogging;
+import akka.event.Logging;
+import akka.persistence.journal.Tagged;
+
+/**
+ * Holds everything that is the same for all instances of one {@link AbstractStatefulPersistentActor} subclass, so that
+ * it's kept in memory once per actor type (and actor system), rather than once per resident entity.
+ */
+final class PersistentActorType<C,E,S extends AbstractState<E,S>> {
+    private static class Registry implements Extension {
+        private final ConcurrentMap<Class<?>, PersistentActorType<?,?,?>> types = new ConcurrentHashMap<>();
+    }
+
+    private static class Id extends AbstractExtensionId<Registry> implements ExtensionIdProvider {
+        private final static Id INSTANCE = new Id();
+
+        private Id() {}
+
+        public Id lookup() {
+            return INSTANCE;
+        }
+
+        public Registry createExtension(ExtendedActorSystem system) {
+            return new Registry();
+        }
+    }
+
+    /**
+     * Returns the shared type information for the given actor class, creating it using [create] if this is the first
+     * instance of that class in the given actor system.
+     */
+    @SuppressWarnings("unchecked")
+    static <C,E,S extends AbstractState<E,S>> PersistentActorType<C,E,S> get(ActorSystem system, Class<?> actorType,
+        Supplier<PersistentActorType<C,E,S>> create) {
+
+        return (PersistentActorType<C,E,S>) Id.INSTANCE.get(system).types.computeIfAbsent(actorType, t -> create.get());
+    }
+
+    private final Class<C> commandType;
+    private final Class<E> eventType;
+    private final BusLogging log;
+    private final scala.collection.immutable.Set<String> tags;
+    private final PersistentActorMetrics metrics;
+    private final int snapshotEveryEvents;
+    private final long snapshotInterval;
+    private final boolean deleteOldSnapshots;
+    private final int maxCommandBatchSize;
+    private final int maxPendingCommands;
+    private final PassivationCoordinator passivation;
+    private volatile CommandHandler<C,E,S> handlers;
+
+    PersistentActorType(ActorSystem system, Class<?> actorType, Class<C> commandType, Class<E> eventType, String tagName, int snapshotEveryEvents,
+        java.time.Duration snapshotInterval, int maxCommandBatchSize, int maxPendingCommands) {
+
+        this.commandType = commandType;
+        this.eventType = eventType;
+        this.log = (BusLogging) Logging.getLogger(system, actorType);
+        // Tagged converts its java.util.Set argument into an immutable scala Set, which we only want to do once.
+        this.tags = new Tagged(tagName, Collections.singleton(tagName)).tags();
+        this.metrics = new PersistentActorMetrics(actorType.getSimpleName().replaceAll("([a-z])([A-Z]+)", "$1-$2").toLowerCase());
+        this.snapshotEveryEvents = snapshotEveryEvents;
+        this.snapshotInterval = snapshotInterval.toNanos();
+        this.deleteOldSnapshots = system.settings().config().getBoolean("ts-reaktive.actors.snapshot.delete-old-snapshots");
+        this.maxCommandBatchSize = maxCommandBatchSize;
+        this.maxPendingCommands = maxPendingCommands;
+        this.passivation = PassivationCoordinator.get(system);
+    }
+
+    public Class<C> getCommandType() {
+        return commandType;
+    }
+
+    public Class<E> getEventType() {
+        return eventType;
+    }
+
+    /** Returns the logger of this actor type, which instances log through with their own path as log source */
+    public BusLogging getLog() {
+        return log;
+    }
+
+    /** Returns the tags that every event emitted by this actor type is tagged with */
+    public scala.collection.immutable.Set<String> getTags() {
+        return tags;
+    }
+
+    public PersistentActorMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getSnapshotEveryEvents() {
+        return snapshotEveryEvents;
+    }
+
+    /** Returns the snapshot interval, in nanoseconds */
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /** Returns whether instances save snapshots, after a number of events and/or an interval */
+    public boolean isSnapshotting() {
+        return snapshotEveryEvents > 0 || snapshotInterval > 0;
+    }
+
+    public boolean isDeleteOldSnapshots() {
+        return deleteOldSnapshots;
+    }
+
+    public int getMaxCommandBatchSize() {
+        return maxCommandBatchSize;
+    }
+
+    /** Returns whether instances handle commands that have queued up together as one batch */
+    public boolean isBatching() {
+        return maxCommandBatchSize > 1;
+    }
+
+    public int getMaxPendingCommands() {
+        return maxPendingCommands;
+    }
+
+    public PassivationCoordinator getPassivation() {
+        return passivation;
+    }
+
+    /**
+     * Returns the command handlers that are shared by all instances of this actor type, creating them using [create]
+     * if this is the first time they're needed.
+     */
+    public CommandHandler<C,E,S> getHandlers(Supplier<CommandHandler<C,E,S>> create) {
+        if (handlers == null) {
+            synchronized (this) {
+                if (handlers == null) {
+                    handlers = create.get();
+                }
+            }
+        }
+        return handlers;
+    }
+}
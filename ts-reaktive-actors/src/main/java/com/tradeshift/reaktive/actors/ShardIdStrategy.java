@@ -0,0 +1,30 @@
+package com.tradeshift.reaktive.actors;
+
+import scala.util.hashing.MurmurHash3$;
+
+/**
+ * Decides on which shard an entity of a {@link PersistentActorSharding} is placed.
+ *
+ * All nodes of a cluster must use the same strategy for a sharding type. Changing the strategy moves entities to different
+ * shards, so it can only be done by stopping all nodes, not during a rolling upgrade.
+ */
+@FunctionalInterface
+public interface ShardIdStrategy {
+    /**
+     * Places entities by their entityId's String.hashCode(). This is the default, in order to remain compatible with
+     * existing clusters. It yields negative shard ids for half of the entities, and divides ids that share long prefixes
+     * or suffixes unevenly.
+     */
+    public static final ShardIdStrategy HASH_CODE = (entityId, numberOfShards) -> entityId.hashCode() % numberOfShards;
+
+    /**
+     * Places entities by a MurmurHash3 of their entityId, which divides entities evenly over shards
+     * 0 to numberOfShards - 1 regardless of how their ids are composed.
+     */
+    public static final ShardIdStrategy MURMUR3 = (entityId, numberOfShards) -> Math.floorMod(MurmurHash3$.MODULE$.stringHash(entityId), numberOfShards);
+
+    /**
+     * Returns the shard on which the given entityId should be placed
+     */
+    public int getShard(String entityId, int numberOfShards);
+}
@@ -0,0 +1,37 @@
+package com.tradeshift.reaktive.actors;
+
+import java.util.concurrent.CompletionStage;
+
+import io.vavr.control.Option;
+
+/**
+ * A command handler that handles all commands of a given class by delegating to another handler, as created by
+ * {@link CommandHandler#forType}. The delegate's canHandle() is never invoked.
+ */
+final class TypedCommandHandler<C,T extends C,E,S extends AbstractState<E,?>> implements CommandHandler<C,E,S> {
+    private final Class<T> type;
+    private final CommandHandler<? super T,E,S> handler;
+
+    TypedCommandHandler(Class<T> type, CommandHandler<? super T,E,S> handler) {
+        this.type = type;
+        this.handler = handler;
+    }
+
+    @Override
+    public boolean canHandle(C cmd) {
+        return type.isInstance(cmd);
+    }
+
+    @Override
+    public Option<Class<? extends C>> getCommandType() {
+        return Option.some(type);
+    }
+
+    @Override
+    public CompletionStage<Results<E>> handle(S state, C cmd) {
+        if (!type.isInstance(cmd)) {
+            throw new IllegalArgumentException("Trying to handle a command for which canHandle() returned false.");
+        }
+        return handler.handle(state, type.cast(cmd));
+    }
+}
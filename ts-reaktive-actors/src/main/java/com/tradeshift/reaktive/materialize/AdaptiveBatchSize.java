@@ -0,0 +1,70 @@
+package com.tradeshift.reaktive.materialize;
+
+import java.time.Duration;
+
+import com.typesafe.config.Config;
+
+/**
+ * Decides how many events a MaterializerActor worker materializes at once, by "additive increase, multiplicative
+ * decrease" (AIMD). Every batch that completes within the target latency grows the batch size by one, while a batch
+ * that is too slow or fails halves it. The batch size therefore settles at what the view store can take, and backs
+ * off quickly when the view store slows down.
+ *
+ * Since all events of a batch are materialized concurrently (as far as their concurrency keys allow), the batch size
+ * is also the number of events that are in flight at once.
+ *
+ * Batches are reported one at a time by the worker's stream, so this class has a single writer.
+ */
+final class AdaptiveBatchSize {
+    private final int min;
+    private final int max;
+    private final long targetNanos;
+    private volatile int batchSize;
+
+    /**
+     * Returns an AdaptiveBatchSize that starts at [initial], configured by materializer.adaptive-batch-size, or
+     * a fixed size of [initial] if that's not enabled.
+     */
+    public static AdaptiveBatchSize fromConfig(Config config, int initial) {
+        if (config.getBoolean("enabled")) {
+            return new AdaptiveBatchSize(config.getInt("min"), config.getInt("max"), config.getDuration("target-latency"), initial);
+        } else {
+            return new AdaptiveBatchSize(initial, initial, Duration.ZERO, initial);
+        }
+    }
+
+    AdaptiveBatchSize(int min, int max, Duration targetLatency, int initial) {
+        this.min = min;
+        this.max = max;
+        this.targetNanos = targetLatency.toNanos();
+        this.batchSize = Math.max(min, Math.min(max, initial));
+    }
+
+    /** Returns the number of events to materialize in the next batch */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Registers that a batch of the given size has been materialized successfully, taking the given time.
+     */
+    public void onSuccess(int size, long nanos) {
+        if (nanos > targetNanos) {
+            decrease();
+        } else if (size >= batchSize) {
+            // Only batches that were full tell us that the view store can take more.
+            batchSize = Math.min(max, batchSize + 1);
+        }
+    }
+
+    /**
+     * Registers that materializing a batch has failed.
+     */
+    public void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        batchSize = Math.max(min, batchSize / 2);
+    }
+}
@@ -1,5 +1,6 @@
 package com.tradeshift.reaktive.materialize;
 
+import java.util.Arrays;
 import java.util.function.BiFunction;
 
 import org.slf4j.Logger;
@@ -23,6 +24,9 @@ import scala.concurrent.duration.FiniteDuration;
  * A graph stage that groups elements together that, in groups, satisfy a condition.
  *
  * Emitted groups will always have at least one element in them.
+ *
+ * Elements are collected into a mutable array that is reused between groups, and only copied into an immutable
+ * {@link Seq} when the group is emitted. The idle timer is only started once per idle period, rather than on every element.
  */
 public class GroupWhile<T> extends GraphStage<FlowShape<T,Seq<T>>> {
     private static final Logger log = LoggerFactory.getLogger(GroupWhile.class);
@@ -59,58 +63,84 @@ public class GroupWhile<T> extends GraphStage<FlowShape<T,Seq<T>>> {
     @Override
     public GraphStageLogic createLogic(Attributes inheritedAttributes) {
         return new TimerGraphStageLogic(shape) {
-            Seq<T> buffer = Vector.empty();
+            /** The current group, in buffer[0] until buffer[count - 1]. The array is reused for subsequent groups. */
+            Object[] buffer = new Object[Math.min(maxGroupSize, 16)];
+            int count = 0;
+            /** When the last element was pushed, in System.nanoTime() */
+            long lastPush;
 
             {
                 setHandler(in, new AbstractInHandler() {
                     @Override
                     public void onPush() {
                         T t = grab(in);
-
-                        if (buffer.isEmpty() || test.apply(buffer.get(buffer.size() - 1), t)) {
-                            buffer = buffer.append(t);
-                            scheduleOnce("idle", idleEmitTimeout);
+                        lastPush = System.nanoTime();
+
+                        if (count == 0 || test.apply(last(), t)) {
+                            if (count == maxGroupSize) {
+                                failStage(new BufferOverflowException("Exceeded configured GroupWhile buffer size of " + maxGroupSize));
+                                return;
+                            }
+                            add(t);
                             pull(in);
                         } else {
                             emitBuffer();
-                            scheduleOnce("idle", idleEmitTimeout);
-                            buffer = buffer.append(t);
+                            add(t);
                         }
-                        if (buffer.size() > maxGroupSize) {
-                            failStage(new BufferOverflowException("Exceeded configured GroupWhile buffer size of " + maxGroupSize));
-                            return;
+                        if (!isTimerActive("idle")) {
+                            scheduleOnce("idle", idleEmitTimeout);
                         }
                     }
 
                     @Override
                     public void onUpstreamFinish() {
                         emitBuffer();
-                        completeStage();
+                        complete(out);
                     }
                 });
 
                 setHandler(out, new AbstractOutHandler() {
                     @Override
                     public void onPull() {
-                        if (!hasBeenPulled(in)) {
+                        if (!hasBeenPulled(in) && !isClosed(in)) {
                             pull(in);
                         }
                     }
                 });
             }
 
+            @SuppressWarnings("unchecked")
+            private T last() {
+                return (T) buffer[count - 1];
+            }
+
+            private void add(T t) {
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxGroupSize));
+                }
+                buffer[count++] = t;
+            }
+
+            /** Emits an immutable copy of the current group, if any, and clears the buffer for the next group */
+            @SuppressWarnings("unchecked")
             private void emitBuffer() {
-                if (!buffer.isEmpty() && isAvailable(out)) {
-                    emit(out, buffer);
-                    buffer = Vector.empty();
-                    cancelTimer("idle");
+                if (count > 0) {
+                    emit(out, Vector.of((T[]) Arrays.copyOf(buffer, count)));
+                    Arrays.fill(buffer, 0, count, null);
+                    count = 0;
                 }
             }
 
             @Override
             public void onTimer(Object timerKey) {
-                log.debug("Idle timeout reached with {} elements waiting", buffer.size());
-                emitBuffer();
+                // The timer isn't rescheduled on every element, so check whether the stream really has been idle long enough.
+                long idleNanos = System.nanoTime() - lastPush;
+                if (idleNanos < idleEmitTimeout.toNanos()) {
+                    scheduleOnce("idle", FiniteDuration.fromNanos(idleEmitTimeout.toNanos() - idleNanos));
+                } else if (count > 0) {
+                    log.debug("Idle timeout reached with {} elements waiting", count);
+                    emitBuffer();
+                }
             }
         };
     }
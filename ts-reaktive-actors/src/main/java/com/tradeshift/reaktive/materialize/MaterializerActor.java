@@ -1,54 +1,84 @@
 package com.tradeshift.reaktive.materialize;
 
+import static akka.pattern.PatternsCS.pipe;
+import static com.tradeshift.reaktive.protobuf.UUIDs.toJava;
 import static io.vavr.control.Option.none;
 import static io.vavr.control.Option.some;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.io.Serializable;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import com.tradeshift.reaktive.CompletableFutures;
 import com.tradeshift.reaktive.akka.SharedActorMaterializer;
 import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerActorEvent;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerActorSnapshot;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerQuarantineEvent;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerReimportEvent;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerReimportEvent.Part;
 import com.typesafe.config.Config;
 
 import akka.Done;
 import akka.NotUsed;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.ReceiveTimeout;
+import akka.actor.Scheduler;
 import akka.actor.Status.Failure;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.japi.Pair;
 import akka.japi.pf.ReceiveBuilder;
+import akka.pattern.PatternsCS;
 import akka.persistence.AbstractPersistentActor;
 import akka.persistence.DeleteMessagesFailure;
 import akka.persistence.DeleteMessagesSuccess;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.DeleteSnapshotsSuccess;
 import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotMetadata;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
 import akka.stream.ActorMaterializer;
 import akka.stream.KillSwitch;
 import akka.stream.KillSwitches;
 import akka.stream.javadsl.Keep;
 import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
 import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
 import io.vavr.collection.Map;
 import io.vavr.collection.Seq;
 import io.vavr.collection.Set;
 import io.vavr.collection.Vector;
 import io.vavr.control.Option;
+import scala.concurrent.ExecutionContext;
 import scala.concurrent.duration.FiniteDuration;
 
 /**
  * Persistent actor that reads events from an existing journal and creates a materialized view.
  *
  * Multiple concurrent workers can be started, that import from different time periods simultaneously.
+ * Workers are started through {@link CreateWorker}, or automatically when materializer.auto-split is enabled.
  *
  * It is up to the implementing class to synchronize any concurrent workers.
  *
@@ -65,16 +95,54 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
     private final FiniteDuration restartDelay;
     private final int batchSize;
     private final int updateSize;
+    private final Duration updateWindow;
+    private final Config adaptiveBatchSizeConfig;
     private final int maxEventsPerTimestamp;
     private final int maxWorkerCount;
     private final int deleteMessagesAfter;
+    private final boolean progressInSnapshots;
+    private final boolean deleteOldSnapshots;
+    private final int pipelinePartitions;
+    private final int pipelineMaxInFlight;
+    private final boolean autoSplit;
+    private final FiniteDuration autoSplitInterval;
+    private final Duration autoSplitMinRange;
     private final Duration updateOffsetInterval;
-    private final AtomicReference<Instant> reimportProgress = new AtomicReference<>();
+    private final int reimportParallelism;
+    private final int reimportByEntityThreshold;
+    private final int reimportCompactAfter;
+    private final boolean poisonEvents;
+    private final int poisonEventRetries;
+    private final Duration poisonEventMinBackoff;
+    private final Duration poisonEventMaxBackoff;
     private final ActorMaterializer materializer;
+    /** Used to retry poison events, which happens on stream threads rather than in the actor */
+    private final Scheduler scheduler;
+    private final ExecutionContext dispatcher;
 
     private volatile MaterializerWorkers workers;
-    private Option<KillSwitch> ongoingReimport = Option.none();
+    private MaterializerReimports reimports = MaterializerReimports.empty();
+    /** The streams of re-import parts that are currently running, by re-import ID and part end timestamp */
+    private Map<Tuple2<UUID,Long>,KillSwitch> reimportStreams = HashMap.empty();
+    /** The sequence number up to which events have been deleted */
+    private long deletedUpTo = 0;
+    /** Whether a snapshot is being saved, and whether the state has changed since, when storing progress in snapshots */
+    private boolean savingSnapshot = false;
+    private boolean snapshotOutdated = false;
+    private long savedSnapshots = 0;
+    private Option<Cancellable> autoSplitTimer = Option.none();
     private Map<UUID,AtomicLong> workerEndTimestamps = HashMap.empty();
+    /** The batch size of each worker, which is retained when a worker restarts */
+    private Map<UUID,AdaptiveBatchSize> batchSizes = HashMap.empty();
+    /** Entities for which an event has been quarantined. Read by the workers, which skip further events of these. */
+    private volatile Set<String> quarantined = HashSet.empty();
+    /**
+     * Entities that a worker has quarantined, but that haven't been added to [quarantined] yet. Workers add to this
+     * before they move on to the next event, so further events of the entity are skipped right away.
+     */
+    private final java.util.Set<String> quarantining = ConcurrentHashMap.newKeySet();
+    /** The sequence number of the latest MaterializerQuarantineEvent, which must be retained while [quarantined] is non-empty */
+    private long quarantineSequenceNr = 0;
 
     protected MaterializerActor() {
         this(HashMap.empty());
@@ -93,10 +161,28 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         restartDelay = FiniteDuration.create(config.getDuration("restart-delay", SECONDS), SECONDS);
         batchSize = config.getInt("batch-size");
         updateSize = config.getInt("update-size");
+        updateWindow = config.getDuration("update-window");
+        adaptiveBatchSizeConfig = config.getConfig("adaptive-batch-size");
         maxEventsPerTimestamp = config.getInt("max-events-per-timestamp");
         maxWorkerCount = config.getInt("max-worker-count");
         updateOffsetInterval = config.getDuration("update-offset-interval");
         deleteMessagesAfter = config.getInt("delete-messages-after");
+        progressInSnapshots = parseProgressStore(config.getString("progress-store"));
+        deleteOldSnapshots = config.getBoolean("delete-old-snapshots");
+        pipelinePartitions = config.getInt("pipeline-partitions");
+        pipelineMaxInFlight = config.getInt("pipeline-max-in-flight");
+        reimportParallelism = config.getInt("reimport-parallelism");
+        reimportByEntityThreshold = config.getInt("reimport-by-entity-threshold");
+        reimportCompactAfter = config.getInt("reimport-compact-after");
+        poisonEvents = config.getBoolean("poison-events.enabled");
+        poisonEventRetries = config.getInt("poison-events.retries");
+        poisonEventMinBackoff = config.getDuration("poison-events.min-backoff");
+        poisonEventMaxBackoff = config.getDuration("poison-events.max-backoff");
+        this.scheduler = context().system().scheduler();
+        this.dispatcher = context().dispatcher();
+        autoSplit = config.getBoolean("auto-split.enabled");
+        autoSplitInterval = FiniteDuration.create(config.getDuration("auto-split.interval", SECONDS), SECONDS);
+        autoSplitMinRange = config.getDuration("auto-split.min-range");
         this.workers = MaterializerWorkers.empty(Duration.ofMillis(rollback.toMillis()));
         metrics = new MaterializerMetrics(getClass().getSimpleName().replaceAll("([a-z])([A-Z]+)", "$1-$2").toLowerCase(),
             additionalMetricTags);
@@ -124,32 +210,104 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
             .match(Reimport.class, msg -> {
                 reimport(msg.entityIds);
             })
+            .match(StartReimport.class, msg -> {
+                startReimport(msg);
+            })
+            .match(Quarantined.class, msg -> {
+                if (quarantined.contains(msg.entityId) || !quarantining.contains(msg.entityId)) {
+                    // Already recorded, or replayed by ReimportQuarantined in the meantime
+                    quarantining.remove(msg.entityId);
+                } else {
+                    persistState(toQuarantineEvent(quarantined.add(msg.entityId)), evt -> {
+                        applyQuarantineEvent(evt);
+                        quarantining.remove(msg.entityId);
+                    });
+                }
+            })
+            .match(ReimportQuarantined.class, msg -> {
+                reimportQuarantined();
+            })
+            .match(ReimportProgress.class, msg -> {
+                persistState(reimports.onProgress(msg.id, msg.endTimestamp, msg.timestamp), evt -> {
+                    applyReimportEvent(evt);
+                    sender().tell("ack", self());
+                });
+            })
+            .match(ReimportEntitiesDone.class, msg -> {
+                persistState(reimports.onEntitiesDone(msg.id, msg.entityIds), evt -> {
+                    if (evt.getPartCount() == 0) {
+                        log.info("Re-import {} completed.", msg.id);
+                        reimportStreams = reimportStreams.filterKeys(key -> !key._1.equals(msg.id));
+                    }
+                    applyReimportEvent(evt);
+                    sender().tell("ack", self());
+                });
+            })
+            .match(ReimportPartDone.class, msg -> {
+                onReimportPartDone(msg.id, msg.endTimestamp);
+            })
+            .match(ReimportPartFailure.class, failure -> {
+                onReimportPartFailure(failure.id, failure.endTimestamp, failure.cause);
+            })
+            .match(StartReimportPart.class, msg -> {
+                reimports.getParts(msg.id).filter(p -> p.getEndTimestamp() == msg.endTimestamp.toEpochMilli())
+                    .forEach(p -> startReimportPart(msg.id, p));
+            })
+            .match(Failure.class, failure -> {
+                log.error(failure.cause(), "Could not start re-import");
+            })
             .match(QueryProgress.class, msg -> {
                 sendProgress();
             })
-            .matchEquals("reimportComplete", msg -> {
-                log.info("Re-import completed.");
-                this.ongoingReimport = none();
-                reimportProgress.set(null);
-            })
             .match(StartWorker.class, msg -> {
                 materializeEvents(msg.worker);
             })
             .match(CreateWorker.class, msg -> {
                 createWorker(msg.timestamp, msg.endTimestamp);
             })
+            .match(AutoSplit.class, msg -> {
+                autoSplit();
+            })
             .matchEquals("init", msg -> getSender().tell("ack", self()))
             .match(WorkerProgress.class, p -> {
-                persist(workers.onWorkerProgress(p.worker, p.timestamp), evt -> {
+                persistState(workers.onWorkerProgress(p.worker, p.timestamp), evt -> {
                     applyEvent(evt);
                     context().system().scheduler().scheduleOnce(
                         updateAccuracy, sender(), "ack", context().dispatcher(), self());
-                    if ((lastSequenceNr() > 1) && ((lastSequenceNr() % deleteMessagesAfter) == 0)) {
-                        log.debug("Deleting up to {}", lastSequenceNr() - 1);
-                        deleteMessages(lastSequenceNr() - 1);
+                    if (!progressInSnapshots && (lastSequenceNr() > 1) && ((lastSequenceNr() % deleteMessagesAfter) == 0)) {
+                        compactReimports();
+                        // The events of on-going re-imports are still needed to recover them, as is the latest quarantine event.
+                        long upTo = Math.min(lastSequenceNr(), reimports.getFirstSequenceNr().getOrElse(Long.MAX_VALUE)) - 1;
+                        if (!quarantined.isEmpty()) {
+                            upTo = Math.min(upTo, quarantineSequenceNr - 1);
+                        }
+                        if (upTo > deletedUpTo) {
+                            log.debug("Deleting up to {}", upTo);
+                            deleteMessages(upTo);
+                            deletedUpTo = upTo;
+                        }
                     }
                 });
             })
+            .match(SaveSnapshotSuccess.class, msg -> {
+                onSnapshotSaved(msg.metadata());
+            })
+            .match(SaveSnapshotFailure.class, msg -> {
+                log.warning("Saving snapshot failed, retrying in {}: {}", updateAccuracy, msg.cause());
+                // Changes until then are coalesced into the retry, which saves the state at that time.
+                context().system().scheduler().scheduleOnce(
+                    updateAccuracy, self(), RetrySaveSnapshot.instance, context().dispatcher(), self());
+            })
+            .match(RetrySaveSnapshot.class, msg -> {
+                savingSnapshot = false;
+                saveState();
+            })
+            .match(DeleteSnapshotsSuccess.class, msg -> {
+                log.debug("Deleted snapshots: {}", msg.criteria());
+            })
+            .match(DeleteSnapshotsFailure.class, msg -> {
+                log.warning("Deleting snapshots {} failed: {}", msg.criteria(), msg.cause());
+            })
             .match(DeleteMessagesSuccess.class, msg -> {
                 log.debug("Delete messages completed.");
             })
@@ -179,8 +337,7 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
     }
 
     private void sendProgress() {
-        Option<Instant> reimportP = Option.of(reimportProgress.get());
-        sender().tell(new Progress(reimportP, workers), self());
+        sender().tell(new Progress(reimports.getTimestamp(), workers, quarantined.addAll(quarantining)), self());
     }
 
     private void createWorker(Instant timestamp, Option<Instant> endTimestamp) {
@@ -193,12 +350,27 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         persistAndApply(workers.startWorker(timestamp, endTimestamp));
     }
 
+    /**
+     * Starts an extra worker halfway the largest time range that is left to process, if there's room for more workers.
+     * Workers merge again by themselves, once a worker catches up with the start of the next one.
+     */
+    private void autoSplit() {
+        if (workers.getIds().size() >= maxWorkerCount) {
+            return;
+        }
+
+        for (Instant timestamp: workers.getSplitTimestamp(Instant.now(), autoSplitMinRange)) {
+            log.info("Splitting workers at {}, since more than {} remains to be processed.", timestamp, autoSplitMinRange);
+            persistAndApply(workers.startWorker(timestamp, none()));
+        }
+    }
+
     private void reset() {
         persistAndApply(workers.reset());
     }
 
     private void persistAndApply(MaterializerActorEvent evt) {
-        persist(evt, e -> {
+        persistState(evt, e -> {
             applyEvent(evt);
 
             // The first worker will have been stopped and we have a new one at the epoch. Start it.
@@ -213,6 +385,8 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         if (workers.getIds().contains(worker)) {
             context().system().scheduler()
                 .scheduleOnce(restartDelay, self(), new StartWorker(worker), context().dispatcher(), self());
+        } else {
+            batchSizes = batchSizes.remove(worker);
         }
     }
 
@@ -222,12 +396,34 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
             // Backwards-compatibility of old Long.class events from when there was only 1 worker
             .match(Long.class, evt -> workers = workers.applyEvent(evt))
             .match(MaterializerActorEvent.class, this::applyEvent)
+            .match(MaterializerReimportEvent.class, this::applyReimportEvent)
+            .match(MaterializerQuarantineEvent.class, this::applyQuarantineEvent)
+            .match(SnapshotOffer.class, offer -> {
+                MaterializerActorSnapshot snapshot = (MaterializerActorSnapshot) offer.snapshot();
+                workers = workers.applyEvent(snapshot.getWorkers());
+                reimports = MaterializerReimports.empty();
+                snapshot.getReimportList().forEach(evt -> reimports = reimports.applyEvent(evt, offer.metadata().sequenceNr()));
+                quarantined = HashSet.ofAll(snapshot.getQuarantinedEntityIdList());
+            })
             .match(RecoveryCompleted.class, m -> {
                 if (workers.isEmpty()) {
                     workers = workers.initialize();
                 }
                 log.info("Recovery completed, workers: {}", workers);
                 workers.getIds().forEach(this::materializeEvents);
+                if (!reimports.isEmpty()) {
+                    log.info("Resuming re-imports: {}", reimports);
+                }
+                if (!quarantined.isEmpty()) {
+                    log.warning("{} entities are quarantined, send ReimportQuarantined to replay them.", quarantined.size());
+                }
+                for (UUID id: reimports.getIds()) {
+                    reimports.getParts(id).forEach(p -> startReimportPart(id, p));
+                }
+                if (autoSplit) {
+                    autoSplitTimer = some(context().system().scheduler().schedule(
+                        autoSplitInterval, autoSplitInterval, self(), AutoSplit.instance, context().dispatcher(), ActorRef.noSender()));
+                }
             })
             .build();
     }
@@ -247,6 +443,59 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         recordOffsetMetric();
     }
 
+    private static boolean parseProgressStore(String store) {
+        switch (store) {
+            case "journal": return false;
+            case "snapshot-store": return true;
+            default: throw new IllegalArgumentException("Unknown materializer progress-store: " + store);
+        }
+    }
+
+    /**
+     * Stores the given event, and then invokes the handler. When storing progress in snapshots, the handler is invoked
+     * right away (so any reply goes out before the change is durable), and a snapshot of the resulting state is saved
+     * after that.
+     */
+    private <T> void persistState(T evt, Consumer<T> handler) {
+        if (progressInSnapshots) {
+            handler.accept(evt);
+            saveState();
+        } else {
+            persist(evt, handler::accept);
+        }
+    }
+
+    /**
+     * Saves a snapshot of the current state. Only one snapshot is saved at a time, so snapshot stores that write
+     * a snapshot for the same sequence number in place always end up with the latest state. Changes while a snapshot
+     * is being saved are coalesced into the next one.
+     */
+    private void saveState() {
+        if (savingSnapshot) {
+            snapshotOutdated = true;
+        } else {
+            savingSnapshot = true;
+            snapshotOutdated = false;
+            saveSnapshot(MaterializerActorSnapshot.newBuilder()
+                .setWorkers(workers.toEvent())
+                .addAllReimport(reimports.toEvents())
+                .addAllQuarantinedEntityId(quarantined)
+                .build());
+        }
+    }
+
+    private void onSnapshotSaved(SnapshotMetadata metadata) {
+        savingSnapshot = false;
+        savedSnapshots++;
+        if (deleteOldSnapshots && (savedSnapshots % deleteMessagesAfter) == 0) {
+            // Snapshot stores that keep each saved snapshot separately need some cleaning up.
+            deleteSnapshots(SnapshotSelectionCriteria.create(metadata.sequenceNr(), metadata.timestamp() - 1));
+        }
+        if (snapshotOutdated) {
+            saveState();
+        }
+    }
+
     @Override
     public String persistenceId() {
         return self().path().toString();
@@ -266,7 +515,9 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
 
     @Override
     public void postStop() {
-        cancelReimport();
+        autoSplitTimer.forEach(Cancellable::cancel);
+        // Re-imports are resumed when the materializer starts again.
+        reimportStreams.values().forEach(KillSwitch::shutdown);
     }
 
     private void materializeEvents(UUID worker) {
@@ -288,7 +539,7 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
 
         metrics.getStreams().increment();
 
-        loadEvents(workers.getTimestamp(worker))
+        Source<E,NotUsed> events = loadEvents(workers.getTimestamp(worker))
             .takeWhile(e -> {
                 long end = endTimestamp.get();
                 if (end == -1) {
@@ -296,62 +547,203 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
                 } else {
                     return timestampOf(e).toEpochMilli() < end;
                 }
-            })
+            });
+
+        ((pipelinePartitions > 0) ? materializePipelined(worker, events) : materializeBatched(worker, events))
+            //keep highest last offset, in order to limit the amount of events sent to the journal
+            .conflate(Long::max)
+            .map(t -> new WorkerProgress(worker, Instant.ofEpochMilli(t)))
+            .runWith(Sink.actorRefWithAck(self(),
+                "init", "ack", new WorkerDone(worker), x -> new WorkerFailure(worker, x)), materializer);
+    }
+
+    /**
+     * Materializes the events in chunks of [batchSize], waiting for each chunk to complete before starting the next one.
+     * Emits the timestamp up to which all events have been materialized.
+     */
+    private Source<Long,NotUsed> materializeBatched(UUID worker, Source<E,NotUsed> events) {
+        if (!batchSizes.containsKey(worker)) {
+            batchSizes = batchSizes.put(worker, AdaptiveBatchSize.fromConfig(adaptiveBatchSizeConfig, batchSize));
+        }
+        AdaptiveBatchSize size = batchSizes.apply(worker);
+
+        return events
             // get a Seq<E> of where each Seq has the same timestamp, or emit buffer after [rollback]
             // (assuming no events with that timestamp after that)
             .via(GroupWhile.apply((a,b) -> timestampOf(a).equals(timestampOf(b)),
                                   maxEventsPerTimestamp, rollback))
 
             // Allow multiple timestamps to be processed simultaneously
-            .groupedWeightedWithin(updateSize, seq -> (long) seq.size(), Duration.ofSeconds(1))
+            .groupedWeightedWithin(updateSize, seq -> (long) seq.size(), updateWindow)
 
             // Process them, and emit a single timestamp at t
             .mapAsync(1, listOfSeq ->
-                // re-group into batchSize, each one no longer necessarily within one timestamp
-                Source.from(Vector.ofAll(listOfSeq).flatMap(seq -> seq))
-                    .grouped(batchSize)
-                    .mapAsync(1, envelopeList -> materialize(workers.getIds().indexOf(worker), envelopeList))
+                // re-group into batches, each one no longer necessarily within one timestamp. The size of each batch
+                // is decided right before it starts, since mapAsync(1) only pulls once the previous one is done.
+                Source.unfold(Vector.ofAll(listOfSeq).flatMap(seq -> seq), remaining -> {
+                    int n = size.getBatchSize();
+                    return remaining.isEmpty() ? Optional.empty() : Optional.of(Pair.create(remaining.drop(n), remaining.take(n)));
+                })
+                    .mapAsync(1, envelopeList -> materialize(workers.getIds().indexOf(worker), envelopeList, size))
                     .runWith(Sink.ignore(), materializer)
                     .thenApply(done -> timestampOf(listOfSeq.get(listOfSeq.size() - 1).last()).toEpochMilli())
-            )
-            //keep highest last offset, in order to limit the amount of events sent to the journal
-            .conflate(Long::max)
-            .map(t -> new WorkerProgress(worker, Instant.ofEpochMilli(t)))
-            .runWith(Sink.actorRefWithAck(self(),
-                "init", "ack", new WorkerDone(worker), x -> new WorkerFailure(worker, x)), materializer);
+            );
+    }
+
+    /**
+     * Materializes the events in [pipelinePartitions] partitions by their concurrency key. Events within a partition are
+     * materialized sequentially, while partitions run in parallel, so a slow entity only holds up its own partition.
+     * Up to [pipelineMaxInFlight] events can be underway, and the timestamp of an event is only emitted after all
+     * events before it have completed, i.e. the minimum completed timestamp across partitions. Since events later in
+     * the stream can have the same timestamp, it's held back until an event with a later timestamp has completed (or
+     * the stream has ended), as progress means that a worker is completely done with a timestamp.
+     */
+    private Source<Long,NotUsed> materializePipelined(UUID worker, Source<E,NotUsed> events) {
+        List<CompletionStage<Done>> partitions = new ArrayList<>(Collections.nCopies(pipelinePartitions, done));
+
+        return events
+            .mapAsync(pipelineMaxInFlight, e -> {
+                int partition = Math.floorMod(getConcurrencyKey(e).hashCode(), pipelinePartitions);
+                CompletionStage<Done> result = partitions.get(partition).thenCompose(d -> {
+                    long start = System.nanoTime();
+                    return materializeWithRetry(e).thenApply(done -> {
+                        int workerIndex = workers.getIds().indexOf(worker);
+                        metrics.getEvents(workerIndex).increment();
+                        metrics.getMaterializationDuration(workerIndex).record((System.nanoTime() - start) / 1000000);
+                        return done;
+                    });
+                });
+                partitions.set(partition, result);
+                return result.thenApply(done -> timestampOf(e).toEpochMilli());
+            })
+            // Marks the end of the stream, after which the last timestamp is complete as well
+            .concat(Source.single(Long.MAX_VALUE))
+            .statefulMapConcat(() -> {
+                long[] held = { -1 };
+                return t -> {
+                    long previous = held[0];
+                    held[0] = t;
+                    return (previous != -1 && t > previous) ? Collections.singletonList(previous) : Collections.emptyList();
+                };
+            });
     }
 
     private void reimport(Set<String> entityIds) {
-        if (ongoingReimport.isDefined()) {
-            sender().tell(new Failure(new IllegalStateException("A re-import is already in progress.")), self());
+        UUID id = UUID.randomUUID();
+        Instant maxTimestamp = Instant.now().minusMillis(rollback.toMillis());
+        log.info("Preparing re-import {} for {} entities.", id, entityIds.size());
+
+        // Whether the journal can read the events of a single entity doesn't depend on the entity, so one is asked.
+        if (entityIds.size() <= reimportByEntityThreshold && entityIds.headOption().forAll(entityId -> loadEventsFor(entityId).isDefined())) {
+            pipe(preStartReimport(entityIds)
+                .thenApply(done -> new StartReimport(id, entityIds, true, Instant.EPOCH, maxTimestamp)),
+                context().dispatcher()).to(self());
+        } else {
+            // The time range to re-import starts at the first event in the journal, so it can be divided evenly into parts.
+            pipe(preStartReimport(entityIds)
+                .thenCompose(done -> loadEvents(Instant.EPOCH).runWith(Sink.headOption(), materializer))
+                .thenApply(first -> new StartReimport(id, entityIds, false, first.map(this::timestampOf).orElse(maxTimestamp), maxTimestamp)),
+                context().dispatcher()).to(self());
+        }
+
+        sender().tell(Done.getInstance(), self());
+    }
+
+    /**
+     * Persists the complete state of re-imports that hold back deleting more than [reimportCompactAfter] events, so
+     * that the next deletion can pass the events that started them.
+     */
+    private void compactReimports() {
+        Seq<MaterializerReimportEvent> events = reimports.compact(lastSequenceNr() - reimportCompactAfter);
+        if (!events.isEmpty()) {
+            log.debug("Restating {} re-imports", events.size());
+            persistAll(events, this::applyReimportEvent);
+        }
+    }
+
+    private void startReimport(StartReimport msg) {
+        if (!msg.start.isBefore(msg.end)) {
+            log.info("Nothing to re-import for {}.", msg.id);
             return;
         }
+        persistState(msg.byEntity ? reimports.startByEntity(msg.id, msg.entityIds, msg.end)
+                         : reimports.start(msg.id, msg.entityIds, msg.start, msg.end, reimportParallelism), evt -> {
+            applyReimportEvent(evt);
+            log.info("Starting re-import {}: {}", msg.id, reimports);
+            reimports.getParts(msg.id).forEach(p -> startReimportPart(msg.id, p));
+        });
+    }
 
-        log.info("Starting a reimport for {} entities.", entityIds.size());
-        ActorRef self = self();
-        Instant maxTimestamp = Instant.now().minusMillis(rollback.toMillis());
+    private void applyReimportEvent(MaterializerReimportEvent evt) {
+        reimports = reimports.applyEvent(evt, lastSequenceNr());
+        UUID id = toJava(evt.getId());
+        Seq<Long> parts = reimports.getParts(id).map(Part::getEndTimestamp);
+        reimportStreams.filterKeys(key -> key._1.equals(id) && !parts.contains(key._2)).forEach((key, stream) -> {
+            // The part is no longer there, because it was cancelled.
+            log.info("Re-import {} part until {} being stopped by event.", id, Instant.ofEpochMilli(key._2));
+            reimportStreams = reimportStreams.remove(key);
+            stream.shutdown();
+        });
+        metrics.getReimportRemaining().set(reimports.getRemainingMillis());
+    }
+
+    private void startReimportPart(UUID id, Part part) {
+        Tuple2<UUID,Long> key = Tuple.of(id, part.getEndTimestamp());
+        if (reimportStreams.containsKey(key)) {
+            return;
+        }
+        Set<String> entityIds = reimports.getEntityIds(id);
+        Instant end = Instant.ofEpochMilli(part.getEndTimestamp());
+        if (reimports.isByEntity(id)) {
+            log.debug("Re-import {}: Start materialize of events of {} entities until {}", id, entityIds.size(), end);
+            reimportStreams = reimportStreams.put(key, Source.from(entityIds)
+                .viaMat(KillSwitches.single(), Keep.right())
+                .mapAsyncUnordered(reimportParallelism, entityId -> loadEventsFor(entityId).get()
+                    .takeWhile(e -> timestampOf(e).isBefore(end))
+                    .mapAsync(1, this::materialize)
+                    .runWith(Sink.ignore(), materializer)
+                    .thenApply(done -> entityId))
+                .groupedWithin(1000, Duration.ofSeconds(1))
+                .map(entityIdList -> new ReimportEntitiesDone(id, Vector.ofAll(entityIdList)))
+                .toMat(Sink.actorRefWithAck(self(), "init", "ack", new ReimportPartDone(id, end),
+                    x -> new ReimportPartFailure(id, end, x)), Keep.left())
+                .run(materializer));
+            return;
+        }
+        log.debug("Re-import {}: Start materialize of events from {} until {}", id, Instant.ofEpochMilli(part.getTimestamp()), end);
 
-        reimportProgress.set(Instant.EPOCH);
-        ongoingReimport = some(Source.fromCompletionStage(preStartReimport(entityIds))
-            .flatMapConcat(done -> loadEvents(Instant.EPOCH))
+        reimportStreams = reimportStreams.put(key, loadEvents(Instant.ofEpochMilli(part.getTimestamp()))
             .viaMat(KillSwitches.single(), Keep.right())
+            .takeWhile(e -> timestampOf(e).isBefore(end))
             .filter(e -> entityIds.contains(getEntityId(e).toString()))
-            .takeWhile(e -> timestampOf(e).isBefore(maxTimestamp))
-            .mapAsync(1, e -> materialize(e).thenApply(done -> {
-                Instant t = timestampOf(e);
-                reimportProgress.set(t);
-                return t;
-            }))
+            .mapAsync(1, e -> materialize(e).thenApply(done -> timestampOf(e)))
             .conflate((t1, t2) -> (t1.isAfter(t2)) ? t1 : t2)
             .throttle(1, Duration.ofSeconds(1))
-            .map(t -> {
-                metrics.getReimportRemaining().set(ChronoUnit.MILLIS.between(t, maxTimestamp));
-                return Done.getInstance();
-            })
-            .toMat(Sink.onComplete(result -> self.tell("reimportComplete", self())), Keep.left())
+            .map(t -> new ReimportProgress(id, end, t))
+            .toMat(Sink.actorRefWithAck(self(), "init", "ack", new ReimportPartDone(id, end),
+                x -> new ReimportPartFailure(id, end, x)), Keep.left())
             .run(materializer));
+    }
 
-        sender().tell(Done.getInstance(), self());
+    private void onReimportPartDone(UUID id, Instant endTimestamp) {
+        Tuple2<UUID,Long> key = Tuple.of(id, endTimestamp.toEpochMilli());
+        if (!reimportStreams.containsKey(key)) {
+            return; // stopped by a cancel
+        }
+        reimportStreams = reimportStreams.remove(key);
+        persistState(reimports.onProgress(id, endTimestamp, endTimestamp), evt -> {
+            applyReimportEvent(evt);
+            if (reimports.getParts(id).isEmpty()) {
+                log.info("Re-import {} completed.", id);
+            }
+        });
+    }
+
+    private void onReimportPartFailure(UUID id, Instant endTimestamp, Throwable cause) {
+        reimportStreams = reimportStreams.remove(Tuple.of(id, endTimestamp.toEpochMilli()));
+        log.error(cause, "Re-import " + id + " part until " + endTimestamp + " failed, restarting in " + restartDelay);
+        context().system().scheduler()
+            .scheduleOnce(restartDelay, self(), new StartReimportPart(id, endTimestamp), context().dispatcher(), self());
     }
 
     /**
@@ -363,12 +755,10 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
     }
 
     private void cancelReimport() {
-        ongoingReimport.forEach(k -> {
-            log.info("Cancelling a reimport.");
-            k.shutdown();
-        });
-        ongoingReimport = none();
-        reimportProgress.set(null);
+        for (UUID id: reimports.getIds()) {
+            log.info("Cancelling re-import {}.", id);
+            persistState(reimports.cancel(id), this::applyReimportEvent);
+        }
 
         sender().tell(Done.getInstance(), self());
     }
@@ -404,46 +794,224 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
     }
 
     /**
-     * Materialize the given envelopes in parallel, as far as their entityIds allow it.
+     * Materializes the given envelopes, which are in journal order. This is invoked with chunks of up to
+     * materializer.batch-size envelopes (or the size chosen by materializer.adaptive-batch-size), and the next chunk
+     * is only started once the returned stage completes.
+     *
+     * The default materializes envelopes with different concurrency keys in parallel, and envelopes with the same
+     * concurrency key sequentially, by invoking {@link #materialize(Object)} for each of them. Subclasses can override
+     * this to write the whole chunk to their view store at once, as long as envelopes with the same concurrency key
+     * are applied in the given order.
+     *
+     * This is not used when materializer.pipeline-partitions is set, or for a {@link Reimport}. When
+     * materializer.poison-events is enabled and the returned stage fails, the chunk is materialized again through the
+     * default, retrying (and eventually quarantining) each envelope by itself. If only some envelopes could be
+     * materialized, fail the stage with a {@link PartialBatchFailure} listing those, so only the others are retried.
+     * A failure of the default itself (also when an override delegates to it) fails the worker straight away, since
+     * its envelopes have been retried one by one already.
      */
-    private CompletionStage<Done> materialize(int workerIndex, java.util.List<E> envelopes) {
-        long start = System.nanoTime();
+    protected CompletionStage<Done> materializeBatch(Seq<E> envelopes) {
+        return materializeByKey(envelopes);
+    }
+
+    /**
+     * Materializes the envelopes of each concurrency key sequentially, and the keys in parallel. If that fails, the
+     * stage fails with a {@link RetriedBatchFailure} of the envelopes that did succeed, once all keys have stopped.
+     */
+    private CompletionStage<Done> materializeByKey(Seq<E> envelopes) {
+        Queue<E> materialized = new ConcurrentLinkedQueue<>();
         return CompletableFutures.sequence(
-            Vector.ofAll(envelopes)
+            envelopes
             .groupBy(this::getConcurrencyKey)
             .values()
-            .map(es -> persistSequential(workerIndex, es))
+            .map(seq -> persistSequential(seq, materialized))
             .map(c -> c.toCompletableFuture())
-        ).thenApply(seqOfDone -> {
-            long dur = (System.nanoTime() - start) / 1000;
+        ).handle((seqOfDone, failure) -> {
+            if (failure != null) {
+                throw new RetriedBatchFailure(Vector.ofAll(materialized), unwrap(failure));
+            }
+            return Done.getInstance();
+        });
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return (failure instanceof CompletionException && failure.getCause() != null) ? failure.getCause() : failure;
+    }
+
+    /**
+     * Materialize the given envelopes in parallel, as far as their entityIds allow it.
+     */
+    private CompletionStage<Done> materialize(int workerIndex, Seq<E> envelopes, AdaptiveBatchSize size) {
+        long start = System.nanoTime();
+        CompletionStage<Done> batch = materializeBatch(envelopes);
+        if (poisonEvents) {
+            batch = batch.handle((d, failure) -> {
+                if (failure == null) {
+                    return done;
+                }
+                Throwable cause = unwrap(failure);
+                if (cause instanceof RetriedBatchFailure) {
+                    // Each envelope has already been retried and quarantined by itself, so it was quarantine() that
+                    // failed. Doing that all over again wouldn't help.
+                    throw (RetriedBatchFailure) cause;
+                }
+                Seq<E> remaining = envelopes;
+                if (cause instanceof PartialBatchFailure) {
+                    @SuppressWarnings("unchecked")
+                    Seq<E> succeeded = (Seq<E>) ((PartialBatchFailure) cause).getMaterialized();
+                    remaining = envelopes.removeAll(succeeded);
+                    cause = cause.getCause();
+                }
+                log.warning("Worker {} failed to materialize {} of {} events, retrying them one by one: {}", workerIndex,
+                    remaining.size(), envelopes.size(), cause);
+                return materializeByKey(remaining);
+            }).thenCompose(stage -> stage);
+        }
+        return batch.handle((done, failure) -> {
+            if (failure != null) {
+                size.onFailure();
+                metrics.getBatchSizeLimit(workerIndex).set(size.getBatchSize());
+                throw (failure instanceof CompletionException) ? (CompletionException) failure : new CompletionException(failure);
+            }
+            long nanos = System.nanoTime() - start;
+            size.onSuccess(envelopes.size(), nanos);
+            metrics.getBatchSizeLimit(workerIndex).set(size.getBatchSize());
+            long dur = nanos / 1000;
             log.debug("Worker {} materialized {} events in {}ms", workerIndex, envelopes.size(),
                 dur / 1000.0);
             if (envelopes.size() > 0) {
+                metrics.getEvents(workerIndex).increment(envelopes.size());
                 metrics.getMaterializationDuration(workerIndex)
                     .record((long) (dur / 1000.0 / envelopes.size()));
+                metrics.getBatchSize(workerIndex).record(envelopes.size());
+                metrics.getBatchDuration(workerIndex).record(dur / 1000);
             }
             return Done.getInstance();
         });
     }
 
-    private CompletionStage<Done> persistSequential(int workerIndex, Seq<E> seq) {
+    /** Materializes the given envelopes one after the other, adding each one to [materialized] once it's done */
+    private CompletionStage<Done> persistSequential(Seq<E> seq, Queue<E> materialized) {
         if (seq.isEmpty()) {
             return done;
         } else {
-            return materialize(seq.head())
+            return materializeWithRetry(seq.head())
                 .thenCompose(done -> {
-                    metrics.getEvents(workerIndex).increment();
-                    return persistSequential(workerIndex, seq.tail());
+                    materialized.add(seq.head());
+                    return persistSequential(seq.tail(), materialized);
                 });
         }
     }
 
+    /**
+     * Materializes the given envelope. When materializer.poison-events is enabled, a failure is retried with
+     * exponential backoff, after which the envelope is quarantined, so that the worker can continue. Envelopes
+     * of entities that have been quarantined are skipped.
+     */
+    private CompletionStage<Done> materializeWithRetry(E envelope) {
+        if (!poisonEvents) {
+            return materialize(envelope);
+        } else if (quarantined.contains(getEntityId(envelope)) || quarantining.contains(getEntityId(envelope))) {
+            log.debug("Skipping event of quarantined entity {}", getEntityId(envelope));
+            return done;
+        } else {
+            return materializeWithRetry(envelope, 0);
+        }
+    }
+
+    private CompletionStage<Done> materializeWithRetry(E envelope, int attempt) {
+        CompletionStage<Done> result;
+        try {
+            result = materialize(envelope);
+        } catch (RuntimeException x) {
+            result = CompletableFutures.failedFuture(x);
+        }
+        return result.handle((d, failure) -> {
+            if (failure == null) {
+                return done;
+            }
+            return retryOrQuarantine(envelope, attempt, unwrap(failure));
+        }).thenCompose(stage -> stage);
+    }
+
+    private CompletionStage<Done> retryOrQuarantine(E envelope, int attempt, Throwable cause) {
+        String entityId = getEntityId(envelope);
+        if (attempt < poisonEventRetries) {
+            long millis = Math.min(poisonEventMaxBackoff.toMillis(), poisonEventMinBackoff.toMillis() << Math.min(attempt, 30));
+            FiniteDuration delay = FiniteDuration.create(millis, MILLISECONDS);
+            log.warning("Materializing event of {} at {} failed, retrying in {}: {}", entityId, timestampOf(envelope), delay, cause);
+            metrics.getRetries().increment();
+            return PatternsCS.after(delay, scheduler, dispatcher, () -> materializeWithRetry(envelope, attempt + 1));
+        }
+        log.error(cause, "Materializing event of {} at {} failed {} times, quarantining the entity.",
+            entityId, timestampOf(envelope), attempt + 1);
+        metrics.getQuarantined().increment();
+        ActorRef self = self();
+        return quarantine(envelope, cause).thenApply(done -> {
+            // Recorded before the stage completes, so the next event of the entity is already skipped. It's persisted
+            // once the actor gets to the Quarantined message.
+            quarantining.add(entityId);
+            self.tell(new Quarantined(entityId), ActorRef.noSender());
+            return done;
+        });
+    }
+
+    /**
+     * This method is invoked for an envelope that could not be materialized after materializer.poison-events.retries
+     * retries. Afterwards, its entity is quarantined: further events of that entity are skipped until
+     * {@link ReimportQuarantined} is received.
+     *
+     * Sub-classes can override this to store the envelope in a dead-letter store of their own. If the returned stage
+     * fails, the worker is restarted, as it would be without materializer.poison-events.
+     */
+    protected CompletionStage<Done> quarantine(E envelope, Throwable cause) {
+        return done;
+    }
+
+    private MaterializerQuarantineEvent toQuarantineEvent(Set<String> entityIds) {
+        return MaterializerQuarantineEvent.newBuilder().addAllEntityId(entityIds).build();
+    }
+
+    private void applyQuarantineEvent(MaterializerQuarantineEvent evt) {
+        quarantined = HashSet.ofAll(evt.getEntityIdList());
+        quarantineSequenceNr = lastSequenceNr();
+    }
+
+    private void reimportQuarantined() {
+        if (quarantined.isEmpty() && quarantining.isEmpty()) {
+            sender().tell(Done.getInstance(), self());
+            return;
+        }
+        Set<String> entityIds = quarantined.addAll(quarantining);
+        log.info("Replaying {} quarantined entities.", entityIds.size());
+        persistState(toQuarantineEvent(HashSet.empty()), evt -> {
+            applyQuarantineEvent(evt);
+            entityIds.forEach(quarantining::remove);
+            reimport(entityIds);
+        });
+    }
+
     /**
      * Get a source of event envelopes with the timestamp higher than or equal to {@code since} parameter.
      * Event envelopes should be ordered by timestamp and then by sequence number.
      */
     protected abstract Source<E, NotUsed> loadEvents(Instant since);
 
+    /**
+     * Get a source of the event envelopes of the given entity, ordered by timestamp and then by sequence number, or
+     * none if the journal can't read the events of a single entity (the default).
+     *
+     * When this is implemented, a {@link Reimport} of at most materializer.reimport-by-entity-threshold entities
+     * reads the events of each of them separately, rather than scanning all events in the journal. This is typically
+     * done using a {@link akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery}.
+     *
+     * Whether this is supported is checked once for each re-import, with its first entity, so it should return either
+     * some or none for all entities.
+     */
+    protected Option<Source<E, NotUsed>> loadEventsFor(String entityId) {
+        return none();
+    }
+
     /**
      * Get a timestamp of event envelope.
      */
@@ -457,10 +1025,11 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
      * until the time that the Reimport message was initially received. The ids are compared by string
      * representation of the actual getEntityId method, which should work fine for both strings and UUID.
      *
-     * A re-import is transient and will not resume or continue when the actor system is restarted.
-     *
-     * Multiple concurrent re-imports are not supported; an in-progress Reimport needs to be cancelled
-     * first through CancelReimport.
+     * The time range is divided into materializer.reimport-parallelism parts, which are imported in parallel. If the
+     * materializer implements {@link #loadEventsFor(String)}, and there are at most materializer.reimport-by-entity-threshold
+     * ids, the events of that many entities are read in parallel instead.
+     * A re-import stores its progress in the materializer's journal, and resumes when the materializer is restarted.
+     * Several re-imports can be underway at the same time.
      */
     public static class Reimport implements Serializable {
         private static final long serialVersionUID = 1L;
@@ -472,7 +1041,21 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         }
     }
 
-    /** Message that can be sent to this actor to cancel any on-going reimport. */
+    /**
+     * Message that can be sent to this actor to replay the entities that have been quarantined because of
+     * materializer.poison-events, by starting a {@link Reimport} of them. The entities are no longer quarantined
+     * afterwards.
+     *
+     * Done is sent back as reply.
+     */
+    public static class ReimportQuarantined implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public static final ReimportQuarantined instance = new ReimportQuarantined();
+        private ReimportQuarantined() {}
+    }
+
+    /** Message that can be sent to this actor to cancel all on-going reimports. */
     public static class CancelReimport implements Serializable {
         private static final long serialVersionUID = 1L;
 
@@ -516,9 +1099,11 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
 
         private final Option<Instant> reimportTimestamp;
         private final Seq<ProgressWorker> workers;
+        private final Set<String> quarantinedEntityIds;
 
-        private Progress(Option<Instant> reimportTimestamp, MaterializerWorkers state) {
+        private Progress(Option<Instant> reimportTimestamp, MaterializerWorkers state, Set<String> quarantinedEntityIds) {
             this.reimportTimestamp = reimportTimestamp;
+            this.quarantinedEntityIds = quarantinedEntityIds;
             this.workers = state.getIds().map(id ->
                 new ProgressWorker(id, state.getTimestamp(id), state.getEndTimestamp(id)));
         }
@@ -530,6 +1115,11 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         public Seq<ProgressWorker> getWorkers() {
             return workers;
         }
+
+        /** Returns the entities that have been quarantined because of materializer.poison-events */
+        public Set<String> getQuarantinedEntityIds() {
+            return quarantinedEntityIds;
+        }
     }
 
     public static class ProgressWorker implements Serializable {
@@ -614,6 +1204,133 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         }
     }
 
+    /** Internal message, sent to the actor when a re-import is ready to start. */
+    private static class StartReimport {
+        private final UUID id;
+        private final Set<String> entityIds;
+        private final boolean byEntity;
+        private final Instant start;
+        private final Instant end;
+
+        public StartReimport(UUID id, Set<String> entityIds, boolean byEntity, Instant start, Instant end) {
+            this.id = id;
+            this.entityIds = entityIds;
+            this.byEntity = byEntity;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /** Internal status message, sent from a re-import stream to actor every so often. */
+    private static class ReimportProgress {
+        private final UUID id;
+        private final Instant endTimestamp;
+        private final Instant timestamp;
+
+        public ReimportProgress(UUID id, Instant endTimestamp, Instant timestamp) {
+            this.id = id;
+            this.endTimestamp = endTimestamp;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /** Internal status message, sent from a re-import by entity to actor when entities have been re-imported. */
+    private static class ReimportEntitiesDone {
+        private final UUID id;
+        private final Seq<String> entityIds;
+
+        public ReimportEntitiesDone(UUID id, Seq<String> entityIds) {
+            this.id = id;
+            this.entityIds = entityIds;
+        }
+    }
+
+    private static class ReimportPartDone {
+        private final UUID id;
+        private final Instant endTimestamp;
+
+        public ReimportPartDone(UUID id, Instant endTimestamp) {
+            this.id = id;
+            this.endTimestamp = endTimestamp;
+        }
+    }
+
+    /** Internal status message, sent from a re-import stream to actor when the stream fails. */
+    private static class ReimportPartFailure {
+        private final UUID id;
+        private final Instant endTimestamp;
+        private final Throwable cause;
+
+        public ReimportPartFailure(UUID id, Instant endTimestamp, Throwable cause) {
+            this.id = id;
+            this.endTimestamp = endTimestamp;
+            this.cause = cause;
+        }
+    }
+
+    private static class StartReimportPart {
+        private final UUID id;
+        private final Instant endTimestamp;
+
+        public StartReimportPart(UUID id, Instant endTimestamp) {
+            this.id = id;
+            this.endTimestamp = endTimestamp;
+        }
+    }
+
+    /**
+     * Can be used to fail the stage returned by {@link MaterializerActor#materializeBatch(Seq)} when only some of the
+     * envelopes could be materialized. With materializer.poison-events, only the other envelopes are then materialized again.
+     */
+    public static class PartialBatchFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final Seq<?> materialized;
+
+        /**
+         * @param materialized The envelopes that have been materialized successfully
+         * @param cause Why the others failed
+         */
+        public PartialBatchFailure(Seq<?> materialized, Throwable cause) {
+            super("Failed to materialize a batch, after " + materialized.size() + " envelopes succeeded", cause);
+            this.materialized = materialized;
+        }
+
+        public Seq<?> getMaterialized() {
+            return materialized;
+        }
+    }
+
+    /**
+     * Fails the default {@link MaterializerActor#materializeBatch(Seq)}, whose envelopes have each been retried and
+     * quarantined by themselves already, so they're not retried one by one again.
+     */
+    private static class RetriedBatchFailure extends PartialBatchFailure {
+        private static final long serialVersionUID = 1L;
+
+        public RetriedBatchFailure(Seq<?> materialized, Throwable cause) {
+            super(materialized, cause);
+        }
+    }
+
+    /** Internal message, sent from a worker to actor when an event of the given entity has been quarantined. */
+    private static class Quarantined {
+        private final String entityId;
+
+        public Quarantined(String entityId) {
+            this.entityId = entityId;
+        }
+    }
+
+    private static class AutoSplit {
+        private static final AutoSplit instance = new AutoSplit();
+    }
+
+    /** Internal message, sent to self some time after saving a snapshot has failed */
+    private static class RetrySaveSnapshot {
+        private static final RetrySaveSnapshot instance = new RetrySaveSnapshot();
+    }
+
     private static class StartWorker {
         private final UUID worker;
 
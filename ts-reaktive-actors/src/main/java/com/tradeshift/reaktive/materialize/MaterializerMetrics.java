@@ -1,5 +1,7 @@
 package com.tradeshift.reaktive.materialize;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import io.vavr.collection.Map;
 import kamon.Kamon;
 import kamon.metric.Counter;
@@ -14,6 +16,10 @@ public class MaterializerMetrics {
     private final Map<String, String> baseTags;
     private final CounterMetric events;
     private final Counter restarts;
+    /** The number of times that materializing an event has been retried (see materializer.poison-events) */
+    private final Counter retries;
+    /** The number of events that have been quarantined (see materializer.poison-events) */
+    private final Counter quarantined;
     private final Gauge reimportRemaining;
     /** The current timestamp for each worker, in milliseconds since the epoch */
     private final GaugeMetric offset;
@@ -23,45 +29,105 @@ public class MaterializerMetrics {
     private final GaugeMetric remaining;
     /** The duration, milliseconds, of materializing a single event */
     private final HistogramMetric materializationDuration;
+    /** The number of events in each chunk that is materialized at once */
+    private final HistogramMetric batchSize;
+    /** The duration, milliseconds, of materializing a chunk of events */
+    private final HistogramMetric batchDuration;
+    /** The number of events that each worker currently materializes at once (see materializer.adaptive-batch-size) */
+    private final GaugeMetric batchSizeLimit;
     private final Gauge workers;
     private final Gauge streams;
+    /** The instruments refined for each worker index, since they're used for every materialized event */
+    private final ConcurrentHashMap<Integer, Instruments> byIndex = new ConcurrentHashMap<>();
+
+    private class Instruments {
+        private final Counter events;
+        private final Gauge offset;
+        private final Gauge delay;
+        private final Gauge remaining;
+        private final Histogram materializationDuration;
+        private final Histogram batchSize;
+        private final Histogram batchDuration;
+        private final Gauge batchSizeLimit;
+
+        public Instruments(int index) {
+            java.util.Map<String, String> tags = baseTags.put("index", String.valueOf(index)).toJavaMap();
+            this.events = MaterializerMetrics.this.events.refine(tags);
+            this.offset = MaterializerMetrics.this.offset.refine(tags);
+            this.delay = MaterializerMetrics.this.delay.refine(tags);
+            this.remaining = MaterializerMetrics.this.remaining.refine(tags);
+            this.materializationDuration = MaterializerMetrics.this.materializationDuration.refine(tags);
+            this.batchSize = MaterializerMetrics.this.batchSize.refine(tags);
+            this.batchDuration = MaterializerMetrics.this.batchDuration.refine(tags);
+            this.batchSizeLimit = MaterializerMetrics.this.batchSizeLimit.refine(tags);
+        }
+    }
 
     public MaterializerMetrics(String name, Map<String, String> additionalTags) {
         baseTags = additionalTags.put("journal-materializer", name);
         java.util.Map<String, String> tags = baseTags.toJavaMap();
         this.events = Kamon.counter("journal-materializer.events");
         this.restarts = Kamon.counter("journal-materializer.restarts").refine(tags);
+        this.retries = Kamon.counter("journal-materializer.retries").refine(tags);
+        this.quarantined = Kamon.counter("journal-materializer.quarantined").refine(tags);
         this.reimportRemaining = Kamon.gauge("journal-materializer.reimport-remaining", MeasurementUnit.time().milliseconds()).refine(tags);
         this.offset = Kamon.gauge("journal-materializer.offset", MeasurementUnit.time().milliseconds());
         this.delay = Kamon.gauge("journal-materializer.delay", MeasurementUnit.time().milliseconds());
         this.remaining = Kamon.gauge("journal-materializer.remaining", MeasurementUnit.time().milliseconds());
         this.materializationDuration = Kamon.histogram("journal-materializer.materialization-duration", MeasurementUnit.time().milliseconds());
+        this.batchSize = Kamon.histogram("journal-materializer.batch-size");
+        this.batchDuration = Kamon.histogram("journal-materializer.batch-duration", MeasurementUnit.time().milliseconds());
+        this.batchSizeLimit = Kamon.gauge("journal-materializer.batch-size-limit");
         this.workers = Kamon.gauge("journal-materializer.workers").refine(tags);
         this.streams = Kamon.gauge("journal-materializer.streams").refine(tags);
     }
 
     public Counter getEvents(int index) {
-        return events.refine(baseTags.put("index", String.valueOf(index)).toJavaMap());
+        return instruments(index).events;
     }
 
     public Counter getRestarts() {
         return restarts;
     }
 
+    public Counter getRetries() {
+        return retries;
+    }
+
+    public Counter getQuarantined() {
+        return quarantined;
+    }
+
     public Gauge getOffset(int index) {
-        return offset.refine(baseTags.put("index", String.valueOf(index)).toJavaMap());
+        return instruments(index).offset;
     }
 
     public Gauge getDelay(int index) {
-        return delay.refine(baseTags.put("index", String.valueOf(index)).toJavaMap());
+        return instruments(index).delay;
     }
 
     public Gauge getRemaining(int index) {
-        return remaining.refine(baseTags.put("index", String.valueOf(index)).toJavaMap());
+        return instruments(index).remaining;
     }
 
     public Histogram getMaterializationDuration(int index) {
-        return materializationDuration.refine(baseTags.put("index", String.valueOf(index)).toJavaMap());
+        return instruments(index).materializationDuration;
+    }
+
+    public Histogram getBatchSize(int index) {
+        return instruments(index).batchSize;
+    }
+
+    public Histogram getBatchDuration(int index) {
+        return instruments(index).batchDuration;
+    }
+
+    public Gauge getBatchSizeLimit(int index) {
+        return instruments(index).batchSizeLimit;
+    }
+
+    private Instruments instruments(int index) {
+        return byIndex.computeIfAbsent(index, Instruments::new);
     }
 
     public Gauge getReimportRemaining() {
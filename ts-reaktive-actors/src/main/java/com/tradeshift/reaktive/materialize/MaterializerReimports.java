@@ -0,0 +1,225 @@
+package com.tradeshift.reaktive.materialize;
+
+import static com.tradeshift.reaktive.protobuf.UUIDs.toJava;
+import static com.tradeshift.reaktive.protobuf.UUIDs.toProtobuf;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerReimportEvent;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerReimportEvent.Part;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.Map;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Set;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+/**
+ * Contains the state of on-going re-imports for a MaterializerActor, i.e. the entity IDs of each re-import, and the
+ * timestamp that each of its parts is currently working on.
+ */
+public class MaterializerReimports {
+    private static final MaterializerReimports EMPTY = new MaterializerReimports(LinkedHashMap.empty());
+
+    public static MaterializerReimports empty() {
+        return EMPTY;
+    }
+
+    private static class Reimport {
+        /** The entity IDs to re-import. For a re-import by entity, only the ones that have yet to complete. */
+        private final Set<String> entityIds;
+        private final Seq<Part> parts;
+        private final boolean byEntity;
+        /** The sequence number of the event that started this re-import */
+        private final long sequenceNr;
+
+        public Reimport(Set<String> entityIds, Seq<Part> parts, boolean byEntity, long sequenceNr) {
+            this.entityIds = entityIds;
+            this.parts = parts;
+            this.byEntity = byEntity;
+            this.sequenceNr = sequenceNr;
+        }
+    }
+
+    private final Map<UUID, Reimport> reimports;
+
+    private MaterializerReimports(Map<UUID, Reimport> reimports) {
+        this.reimports = reimports;
+    }
+
+    /**
+     * Returns a new MaterializerReimports where the given event, persisted with the given sequence number, has been applied.
+     */
+    public MaterializerReimports applyEvent(MaterializerReimportEvent event, long sequenceNr) {
+        UUID id = toJava(event.getId());
+        Seq<Part> parts = Vector.ofAll(event.getPartList());
+        if (parts.isEmpty()) {
+            return new MaterializerReimports(reimports.remove(id));
+        }
+        Option<Reimport> existing = reimports.get(id);
+        if (event.getEntityIdCount() > 0) {
+            // Starts the re-import, or restates its complete state (see compact()), which it's then recovered from.
+            return new MaterializerReimports(reimports.put(id, new Reimport(
+                HashSet.ofAll(event.getEntityIdList()), parts, event.getByEntity(), sequenceNr)));
+        } else if (existing.isDefined()) {
+            Reimport r = existing.get();
+            return new MaterializerReimports(reimports.put(id, new Reimport(
+                r.entityIds.removeAll(event.getCompletedEntityIdList()), parts, r.byEntity, r.sequenceNr)));
+        } else {
+            // Progress for a re-import that has already been completed or cancelled
+            return this;
+        }
+    }
+
+    /**
+     * Starts a new re-import of the given entity IDs, for events from [start] (inclusive) until [end] (exclusive).
+     * The time range is divided into [parallelism] parts of equal length.
+     *
+     * @return An event to emit for the new re-import
+     */
+    public MaterializerReimportEvent start(UUID id, Set<String> entityIds, Instant start, Instant end, int parallelism) {
+        long from = start.toEpochMilli();
+        long until = end.toEpochMilli();
+        int n = (int) Math.max(1, Math.min(parallelism, until - from));
+        return MaterializerReimportEvent.newBuilder()
+            .setId(toProtobuf(id))
+            .addAllEntityId(entityIds)
+            .addAllPart(Vector.range(0, n).map(i -> Part.newBuilder()
+                .setTimestamp(from + (until - from) * i / n)
+                .setEndTimestamp(from + (until - from) * (i + 1) / n)
+                .build()))
+            .build();
+    }
+
+    /**
+     * Starts a new re-import of the given entity IDs, which reads the events of each entity separately, until [end]
+     * (exclusive). The re-import has a single part, which spans the whole time range.
+     *
+     * @return An event to emit for the new re-import
+     */
+    public MaterializerReimportEvent startByEntity(UUID id, Set<String> entityIds, Instant end) {
+        return MaterializerReimportEvent.newBuilder()
+            .setId(toProtobuf(id))
+            .addAllEntityId(entityIds)
+            .setByEntity(true)
+            .addPart(Part.newBuilder().setTimestamp(0L).setEndTimestamp(end.toEpochMilli()))
+            .build();
+    }
+
+    /**
+     * Applies a re-import by entity reporting back that the given entities have been re-imported.
+     *
+     * @return An event to emit with the new progress. In case all entities are done, the re-import is complete, and
+     * the emitted event will have no parts.
+     */
+    public MaterializerReimportEvent onEntitiesDone(UUID id, Seq<String> entityIds) {
+        boolean complete = getEntityIds(id).removeAll(entityIds).isEmpty();
+        return MaterializerReimportEvent.newBuilder()
+            .setId(toProtobuf(id))
+            .addAllCompletedEntityId(entityIds)
+            .addAllPart(complete ? Vector.empty() : getParts(id))
+            .build();
+    }
+
+    /**
+     * Applies a part of a re-import reporting back timestamp progress.
+     *
+     * @param endTimestamp The end timestamp of the part, which identifies it within the re-import.
+     * @param timestamp The timestamp that the part has completed processing on.
+     *
+     * @return An event to emit with the new progress. In case the part was done, it will be absent from the emitted event.
+     */
+    public MaterializerReimportEvent onProgress(UUID id, Instant endTimestamp, Instant timestamp) {
+        long end = endTimestamp.toEpochMilli();
+        long t = timestamp.toEpochMilli();
+        Seq<Part> parts = getParts(id)
+            .filter(p -> p.getEndTimestamp() != end || t < end)
+            .map(p -> (p.getEndTimestamp() == end && t > p.getTimestamp()) ? p.toBuilder().setTimestamp(t).build() : p);
+        return toEvent(id, parts);
+    }
+
+    /**
+     * Stops the given re-import.
+     *
+     * @return An event to emit for the re-import having been cancelled.
+     */
+    public MaterializerReimportEvent cancel(UUID id) {
+        return toEvent(id, Vector.empty());
+    }
+
+    private static MaterializerReimportEvent toEvent(UUID id, Iterable<Part> parts) {
+        return MaterializerReimportEvent.newBuilder().setId(toProtobuf(id)).addAllPart(parts).build();
+    }
+
+    /** Returns events that, when applied to an empty MaterializerReimports, result in this state. */
+    public Seq<MaterializerReimportEvent> toEvents() {
+        return reimports.toVector().map(t -> toStateEvent(t._1, t._2));
+    }
+
+    /**
+     * Returns events that restate the complete state of each re-import that was started (or last restated) by an event
+     * before the given sequence number. Once these have been applied, the events before them are no longer needed.
+     */
+    public Seq<MaterializerReimportEvent> compact(long sequenceNr) {
+        return reimports.toVector().filter(t -> t._2.sequenceNr < sequenceNr).map(t -> toStateEvent(t._1, t._2));
+    }
+
+    private static MaterializerReimportEvent toStateEvent(UUID id, Reimport r) {
+        return MaterializerReimportEvent.newBuilder()
+            .setId(toProtobuf(id))
+            .addAllEntityId(r.entityIds)
+            .setByEntity(r.byEntity)
+            .addAllPart(r.parts)
+            .build();
+    }
+
+    public boolean isEmpty() {
+        return reimports.isEmpty();
+    }
+
+    public Seq<UUID> getIds() {
+        return reimports.keySet().toVector();
+    }
+
+    /** Returns whether the given re-import reads the events of each entity separately */
+    public boolean isByEntity(UUID id) {
+        return reimports.get(id).exists(r -> r.byEntity);
+    }
+
+    public Set<String> getEntityIds(UUID id) {
+        return reimports.get(id).map(r -> r.entityIds).getOrElse(HashSet.empty());
+    }
+
+    /** Returns the parts of the given re-import that have yet to complete */
+    public Seq<Part> getParts(UUID id) {
+        return reimports.get(id).map(r -> r.parts).getOrElse(Vector.empty());
+    }
+
+    /** Returns the earliest timestamp up to which all re-imports have progressed, if any re-imports are on-going */
+    public Option<Instant> getTimestamp() {
+        return reimports.values().flatMap(r -> r.parts).map(Part::getTimestamp).min().map(Instant::ofEpochMilli);
+    }
+
+    /** Returns the total time left to re-import, in milliseconds, over all parts of all re-imports. */
+    public long getRemainingMillis() {
+        return reimports.values().flatMap(r -> r.parts).map(p -> p.getEndTimestamp() - p.getTimestamp()).sum().longValue();
+    }
+
+    /**
+     * Returns the sequence number of the event that started (or last restated) the oldest on-going re-import, if any.
+     * Events from that sequence number on must be retained in the journal, since they're needed to recover the re-imports.
+     */
+    public Option<Long> getFirstSequenceNr() {
+        return reimports.values().map(r -> r.sequenceNr).min();
+    }
+
+    @Override
+    public String toString() {
+        return reimports.map(t -> String.format("%s: %d entities, %s", t._1, t._2.entityIds.size(),
+            t._2.parts.map(p -> Instant.ofEpochMilli(p.getTimestamp()) + " -> " + Instant.ofEpochMilli(p.getEndTimestamp())).mkString(", ")
+        )).mkString(", \n");
+    }
+}
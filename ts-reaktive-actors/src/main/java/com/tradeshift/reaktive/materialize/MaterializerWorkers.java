@@ -3,6 +3,7 @@ package com.tradeshift.reaktive.materialize;
 import static com.tradeshift.reaktive.protobuf.UUIDs.toJava;
 import static com.tradeshift.reaktive.protobuf.UUIDs.toProtobuf;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.TemporalAmount;
 import java.util.UUID;
@@ -16,6 +17,7 @@ import org.slf4j.LoggerFactory;
 
 import com.tradeshift.reaktive.protobuf.UUIDs;
 
+import io.vavr.Tuple;
 import io.vavr.collection.Seq;
 import io.vavr.collection.Vector;
 import io.vavr.control.Option;
@@ -159,6 +161,11 @@ public class MaterializerWorkers {
         }
     }
     
+    /** Returns an event that, when applied to an empty MaterializerWorkers, results in this state. */
+    public MaterializerActorEvent toEvent() {
+        return toEvent(workers);
+    }
+
     private MaterializerActorEvent unchanged() {
         return toEvent(workers);
     }
@@ -248,6 +255,21 @@ public class MaterializerWorkers {
         }
     }
 
+    /**
+     * Returns the timestamp halfway through the time range of the worker that has the most time left to process, if
+     * that is at least [minimumRange]. For the last worker, which has no end timestamp, the time left runs until [now].
+     *
+     * Starting a worker at the returned timestamp splits that range in two. The two workers merge again by themselves
+     * once the first one catches up with the start of the second.
+     */
+    public Option<Instant> getSplitTimestamp(Instant now, Duration minimumRange) {
+        return workers
+            .map(w -> Tuple.of(w.getTimestamp(), (w.hasEndTimestamp() ? w.getEndTimestamp() : now.toEpochMilli()) - w.getTimestamp()))
+            .maxBy(t -> t._2)
+            .filter(t -> t._2 >= minimumRange.toMillis())
+            .map(t -> Instant.ofEpochMilli(t._1 + t._2 / 2));
+    }
+
     private static long earliest(long a, Option<Instant> b) {
         return (b.isEmpty() || a < b.get().toEpochMilli()) ? a : b.get().toEpochMilli();
     }
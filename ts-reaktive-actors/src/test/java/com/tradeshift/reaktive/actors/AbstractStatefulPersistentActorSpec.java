@@ -1,5 +1,6 @@
 package com.tradeshift.reaktive.actors;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.cuppa.Cuppa.describe;
 import static org.forgerock.cuppa.Cuppa.it;
 
@@ -7,6 +8,7 @@ import java.io.Serializable;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.forgerock.cuppa.junit.CuppaRunner;
 import org.junit.runner.RunWith;
@@ -16,9 +18,13 @@ import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
 import akka.Done;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.event.Logging;
+import akka.japi.Procedure;
+import akka.persistence.SaveSnapshotSuccess;
 import akka.testkit.javadsl.TestKit;
 import io.vavr.collection.Seq;
 import io.vavr.collection.Vector;
+import io.vavr.control.Option;
 
 @RunWith(CuppaRunner.class)
 public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
@@ -32,7 +38,9 @@ public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
         }
     }
     
-    public static class MyState extends AbstractState<MyEvent, MyState> {
+    public static class MyState extends AbstractState<MyEvent, MyState> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         private final String msg;
         
         @Override
@@ -99,7 +107,7 @@ public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
         }
 
         public MyActor() {
-            super(String.class, MyEvent.class, new Handler1().orElse(new Handler2()).orElse(new HandlerA()).orElse(new HandlerB()).orElse(new FailingHandler()));
+            super(String.class, MyEvent.class, () -> new Handler1().orElse(new Handler2()).orElse(new HandlerA()).orElse(new HandlerB()).orElse(new FailingHandler()).orElse(new GetHandler()));
         }
         
         @Override
@@ -109,6 +117,237 @@ public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
         
     }
     
+    public static class SnapshottingActor extends AbstractStatefulPersistentActor<String, MyEvent, MyState> {
+        private int recovered = 0;
+        private int snapshots = 0;
+
+        public SnapshottingActor() {
+            super(String.class, MyEvent.class, new Handler1().orElse(new GetHandler()));
+        }
+
+        @Override
+        protected MyState initialState() {
+            return new MyState("");
+        }
+
+        @Override
+        public String persistenceId() {
+            return "snapshotting";
+        }
+
+        @Override
+        protected int getSnapshotEveryEvents() {
+            return 2;
+        }
+
+        @Override
+        public Receive createReceive() {
+            Receive receive = super.createReceive();
+            return receiveBuilder()
+                .matchEquals("recovered", msg -> sender().tell(recovered, self()))
+                .matchEquals("snapshots", msg -> sender().tell(snapshots, self()))
+                .match(SaveSnapshotSuccess.class, msg -> {
+                    snapshots++;
+                    receive.onMessage().apply(msg);
+                })
+                .build()
+                .orElse(receive);
+        }
+
+        @Override
+        protected void havePersisted(MyEvent evt) {
+            if (recoveryRunning()) {
+                recovered++;
+            }
+        }
+    }
+
+    public static class GetHandler implements SynchronousCommandHandler<String, MyEvent, MyState> {
+        @Override
+        public boolean canHandle(String cmd) {
+            return cmd.equals("get");
+        }
+
+        @Override
+        public Results<MyEvent> handleSynchronously(MyState state, String cmd) {
+            return new Results<MyEvent>() {
+                @Override
+                public Object getReply(Seq<MyEvent> emittedEvents, long lastSequenceNr) {
+                    return state.msg;
+                }
+            };
+        }
+    }
+
+    /** Accepts "u:" commands only once, replying with the sequence number of their event */
+    public static class UniqueHandler implements SynchronousCommandHandler<String, MyEvent, MyState> {
+        @Override
+        public boolean canHandle(String cmd) {
+            return cmd.startsWith("u:");
+        }
+
+        @Override
+        public Results<MyEvent> handleSynchronously(MyState state, String cmd) {
+            return new Results<MyEvent>() {
+                @Override
+                public Option<Object> getValidationError(long lastSequenceNr) {
+                    return Option.when(state.msg.contains(cmd), () -> "duplicate");
+                }
+
+                @Override
+                public Seq<MyEvent> getEventsToEmit() {
+                    return Vector.of(new MyEvent(cmd));
+                }
+
+                @Override
+                public Object getReply(Seq<MyEvent> emittedEvents, long lastSequenceNr) {
+                    return lastSequenceNr;
+                }
+            };
+        }
+    }
+
+    public static class BatchingActor extends AbstractStatefulPersistentActor<String, MyEvent, MyState> {
+        public BatchingActor() {
+            super(String.class, MyEvent.class, new UniqueHandler().orElse(new HandlerA()).orElse(new MyActor.FailingHandler()).orElse(new GetHandler()));
+        }
+
+        @Override
+        protected MyState initialState() {
+            return new MyState("");
+        }
+
+        @Override
+        protected int getMaxCommandBatchSize() {
+            return 10;
+        }
+    }
+
+    public static class BoundedBatchingActor extends BatchingActor {
+        @Override
+        protected int getMaxCommandBatchSize() {
+            return 2;
+        }
+
+        @Override
+        protected int getMaxPendingCommands() {
+            return 3;
+        }
+    }
+
+    /** Replies to "writes" with how many times it has written events to the journal */
+    public static class WriteCountingActor extends BatchingActor {
+        private int writes = 0;
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public <A> void persistAll(Iterable<A> events, Procedure<A> handler) {
+            writes++;
+            super.persistAll(events, handler);
+        }
+
+        @Override
+        public <A> void persistAllAsync(Iterable<A> events, Procedure<A> handler) {
+            writes++;
+            super.persistAllAsync(events, handler);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                .matchEquals("writes", msg -> sender().tell(writes, self()))
+                .build()
+                .orElse(super.createReceive());
+        }
+    }
+
+    /** Replies to "count" with how often the canHandle() of its handler has been invoked */
+    public static class CountingActor extends AbstractStatefulPersistentActor<String, MyEvent, MyState> {
+        private final AtomicInteger canHandleInvocations;
+
+        public CountingActor() {
+            this(new AtomicInteger());
+        }
+
+        private CountingActor(AtomicInteger canHandleInvocations) {
+            this(canHandleInvocations, new Handler1() {
+                @Override
+                public boolean canHandle(String cmd) {
+                    canHandleInvocations.incrementAndGet();
+                    return super.canHandle(cmd);
+                }
+            });
+        }
+
+        protected CountingActor(AtomicInteger canHandleInvocations, CommandHandler<String, MyEvent, MyState> handler) {
+            super(String.class, MyEvent.class, handler);
+            this.canHandleInvocations = canHandleInvocations;
+        }
+
+        @Override
+        protected MyState initialState() {
+            return new MyState("");
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                .matchEquals("count", msg -> sender().tell(canHandleInvocations.get(), self()))
+                .build()
+                .orElse(super.createReceive());
+        }
+    }
+
+    /** Declares its "u:" handler as handling all commands other than "get", so its canHandle() is never invoked */
+    public static class TypedCountingActor extends CountingActor {
+        public TypedCountingActor() {
+            this(new AtomicInteger());
+        }
+
+        private TypedCountingActor(AtomicInteger canHandleInvocations) {
+            super(canHandleInvocations, new GetHandler().orElse(CommandHandler.forType(String.class, new UniqueHandler() {
+                @Override
+                public boolean canHandle(String cmd) {
+                    canHandleInvocations.incrementAndGet();
+                    return super.canHandle(cmd);
+                }
+            })));
+        }
+    }
+
+    /** Refuses "1:refused" by overriding canHandleCommand(), and replies to "handled" with the commands it has handled */
+    public static class OverridingActor extends AbstractStatefulPersistentActor<String, MyEvent, MyState> {
+        private Vector<String> handled = Vector.empty();
+
+        public OverridingActor() {
+            super(String.class, MyEvent.class, new Handler1().orElse(new GetHandler()));
+        }
+
+        @Override
+        protected MyState initialState() {
+            return new MyState("");
+        }
+
+        @Override
+        protected boolean canHandleCommand(String cmd) {
+            return !cmd.equals("1:refused") && super.canHandleCommand(cmd);
+        }
+
+        @Override
+        protected void handleCommand(String cmd) {
+            handled = handled.append(cmd);
+            super.handleCommand(cmd);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                .matchEquals("handled", msg -> sender().tell(handled, self()))
+                .build()
+                .orElse(super.createReceive());
+        }
+    }
+
     public static class Handler1 extends MyActor.Handler {
         @Override
         public boolean canHandle(String cmd) {
@@ -157,6 +396,20 @@ public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
                 probe.expectMsgEquals(Done.getInstance());
             });
 
+            it("should keep synchronous commands in order with asynchronous commands before them", () -> {
+                ActorRef actor = system.actorOf(Props.create(MyActor.class));
+                TestKit probe = new TestKit(system);
+                probe.send(actor, "1:a");
+                probe.send(actor, "a:b");
+                probe.send(actor, "1:c");
+                probe.send(actor, "get");
+
+                probe.expectMsgEquals(Done.getInstance());
+                probe.expectMsgEquals(Duration.ofMillis(3000), Done.getInstance());
+                probe.expectMsgEquals(Done.getInstance());
+                probe.expectMsgEquals(",1:a,a:b,1:c");
+            });
+
             it("should by default fail when one of its handlers fails asynchronously", () -> {
                 ActorRef actor = system.actorOf(Props.create(MyActor.class));
                 TestKit probe = new TestKit(system);
@@ -164,6 +417,160 @@ public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
                 probe.watch(actor);
                 probe.expectTerminated(actor);
             });
+
+            it("should log with its own path as log source", () -> {
+                ActorRef actor = system.actorOf(Props.create(MyActor.class));
+                TestKit probe = new TestKit(system);
+                system.eventStream().subscribe(probe.getRef(), Logging.Warning.class);
+                // Results that arrive while idle are accepted, with a warning
+                probe.send(actor, (CommandHandler.Results<MyEvent>) (events, seqNr) -> Done.getInstance());
+
+                Logging.Warning warning = probe.expectMsgClass(Logging.Warning.class);
+                assertThat(warning.logSource()).isEqualTo(actor.path().toString());
+                assertThat(warning.logClass()).isEqualTo(MyActor.class);
+                system.eventStream().unsubscribe(probe.getRef());
+            });
+
+            it("should only look up the handler for each command once", () -> {
+                ActorRef actor = system.actorOf(Props.create(CountingActor.class));
+                TestKit probe = new TestKit(system);
+                probe.send(actor, "1:a");
+                probe.expectMsgEquals(Done.getInstance());
+                probe.send(actor, "unknown");
+                probe.send(actor, "count");
+                probe.expectMsgEquals(2);
+            });
+
+            it("should look up handlers that declare a command type without invoking their canHandle()", () -> {
+                ActorRef actor = system.actorOf(Props.create(TypedCountingActor.class));
+                TestKit probe = new TestKit(system);
+                probe.send(actor, "u:1");
+                probe.expectMsgEquals(1L);
+                probe.send(actor, "u:2");
+                probe.expectMsgEquals(2L);
+                probe.send(actor, "get");
+                probe.expectMsgEquals(",u:1,u:2");
+                probe.send(actor, "count");
+                probe.expectMsgEquals(0);
+            });
+
+            it("should handle commands through canHandleCommand() and handleCommand(), so subclasses can override them", () -> {
+                ActorRef actor = system.actorOf(Props.create(OverridingActor.class));
+                TestKit probe = new TestKit(system);
+                probe.send(actor, "1:refused");
+                probe.send(actor, "1:a");
+                probe.expectMsgEquals(Done.getInstance());
+                probe.send(actor, "get");
+                probe.expectMsgEquals(",1:a");
+                probe.send(actor, "handled");
+                probe.expectMsgEquals(Vector.of("1:a", "get"));
+            });
+        });
+
+        describe("AbstractStatefulPersistentActor with command batching enabled", () -> {
+            it("should handle commands that queue up as a batch, each seeing the events of the ones before it", () -> {
+                ActorRef actor = system.actorOf(Props.create(BatchingActor.class));
+                TestKit probe = new TestKit(system);
+                // The async command takes 2000ms, during which the other commands queue up
+                probe.send(actor, "a:slow");
+                probe.send(actor, "u:x");
+                probe.send(actor, "u:x");
+                probe.send(actor, "u:y");
+                probe.send(actor, "get");
+
+                probe.expectMsgEquals(Duration.ofMillis(3000), Done.getInstance());
+                probe.expectMsgEquals(2L);
+                probe.expectMsgEquals("duplicate");
+                probe.expectMsgEquals(3L);
+                probe.expectMsgEquals(",a:slow,u:x,u:y");
+            });
+
+            it("should reply once to each queued read-only command, also when they take several batches", () -> {
+                ActorRef actor = system.actorOf(Props.create(BatchingActor.class));
+                TestKit probe = new TestKit(system);
+                probe.send(actor, "a:slow");
+                for (int i = 0; i < 25; i++) {
+                    probe.send(actor, "get");
+                }
+
+                probe.expectMsgEquals(Duration.ofMillis(3000), Done.getInstance());
+                for (int i = 0; i < 25; i++) {
+                    probe.expectMsgEquals(",a:slow");
+                }
+                probe.expectNoMessage(Duration.ofMillis(200));
+            });
+
+            it("should reply with a failure to the commands of a failed batch, and the ones queued up behind it", () -> {
+                ActorRef actor = system.actorOf(Props.create(BatchingActor.class));
+                TestKit probe = new TestKit(system);
+                probe.send(actor, "a:slow");
+                probe.send(actor, "fail");
+                // 1 more command than fits in the failing batch
+                for (int i = 0; i < 10; i++) {
+                    probe.send(actor, "get");
+                }
+
+                probe.expectMsgEquals(Duration.ofMillis(3000), Done.getInstance());
+                for (int i = 0; i < 11; i++) {
+                    probe.expectMsgClass(akka.actor.Status.Failure.class);
+                }
+            });
+
+            it("should queue up commands while the events of a batch are being written, writing them together", () -> {
+                ActorRef actor = system.actorOf(Props.create(WriteCountingActor.class));
+                TestKit probe = new TestKit(system);
+                for (int i = 1; i <= 20; i++) {
+                    probe.send(actor, "u:" + i);
+                }
+
+                for (long i = 1; i <= 20; i++) {
+                    probe.expectMsgEquals(i);
+                }
+                probe.send(actor, "writes");
+                assertThat(probe.expectMsgClass(Integer.class)).isLessThan(20);
+            });
+
+            it("should stash commands that don't fit in the queue, handling them in order once it has room again", () -> {
+                ActorRef actor = system.actorOf(Props.create(BoundedBatchingActor.class));
+                TestKit probe = new TestKit(system);
+                probe.send(actor, "a:slow");
+                for (int i = 1; i <= 10; i++) {
+                    probe.send(actor, "u:" + i);
+                }
+
+                probe.expectMsgEquals(Duration.ofMillis(3000), Done.getInstance());
+                for (long i = 1; i <= 10; i++) {
+                    probe.expectMsgEquals(i + 1);
+                }
+                probe.send(actor, "get");
+                probe.expectMsgEquals(",a:slow,u:1,u:2,u:3,u:4,u:5,u:6,u:7,u:8,u:9,u:10");
+            });
+        });
+
+        describe("AbstractStatefulPersistentActor with snapshots enabled", () -> {
+            it("should recover its state from the latest snapshot and the events after it", () -> {
+                TestKit probe = new TestKit(system);
+                ActorRef actor = system.actorOf(Props.create(SnapshottingActor.class));
+                for (String cmd: Vector.of("1:a", "1:b", "1:c")) {
+                    probe.send(actor, cmd);
+                    probe.expectMsgEquals(Done.getInstance());
+                }
+                // Saving the snapshot is asynchronous, so make sure it's there before stopping the actor
+                probe.awaitAssert(() -> {
+                    probe.send(actor, "snapshots");
+                    return probe.expectMsgEquals(1);
+                });
+                probe.watch(actor);
+                system.stop(actor);
+                probe.expectTerminated(actor);
+
+                ActorRef restarted = system.actorOf(Props.create(SnapshottingActor.class));
+                probe.send(restarted, "get");
+                probe.expectMsgEquals(",1:a,1:b,1:c");
+                // Only the event after the snapshot (which was taken after 2 events) should have been replayed
+                probe.send(restarted, "recovered");
+                probe.expectMsgEquals(1);
+            });
         });
     }
 }
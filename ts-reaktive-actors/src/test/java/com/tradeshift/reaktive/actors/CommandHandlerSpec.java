@@ -0,0 +1,132 @@
+package com.tradeshift.reaktive.actors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import io.vavr.collection.Seq;
+
+@RunWith(CuppaRunner.class)
+public class CommandHandlerSpec {
+    private static class State extends AbstractState<String, State> {
+        @Override
+        public State apply(String event) {
+            return this;
+        }
+    }
+
+    /** Replies with its own name, and counts how often its canHandle() is invoked */
+    private static class Handler implements SynchronousCommandHandler<Object, String, State> {
+        private final String name;
+        private final AtomicInteger canHandleInvocations = new AtomicInteger();
+
+        public Handler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean canHandle(Object cmd) {
+            canHandleInvocations.incrementAndGet();
+            return cmd.equals(name);
+        }
+
+        @Override
+        public Results<String> handleSynchronously(State state, Object cmd) {
+            return new Results<String>() {
+                @Override
+                public Object getReply(Seq<String> emittedEvents, long lastSequenceNr) {
+                    return name;
+                }
+            };
+        }
+    }
+
+    /** Returns a handler that handles all commands of the given type with a Handler of the given name */
+    private static CommandHandler<Object, String, State> typed(String name, Class<?> commandType) {
+        return CommandHandler.forType(commandType, new Handler(name));
+    }
+
+    private static Object reply(CommandHandler<Object, String, State> handler, Object cmd) {
+        return handler.handle(new State(), cmd).toCompletableFuture().join().getReply(null, 0);
+    }
+
+    {
+        describe("CommandHandler.forType", () -> {
+            it("should handle exactly the commands of the given type, without invoking canHandle() of its handler", () -> {
+                Handler named = new Handler("named");
+                CommandHandler<Object, String, State> handler = CommandHandler.forType(Number.class, named);
+
+                assertThat(handler.getCommandType()).containsExactly(Number.class);
+                assertThat(handler.canHandle(1)).isTrue();
+                assertThat(handler.canHandle("named")).isFalse();
+                assertThat(reply(handler, 1L)).isEqualTo("named");
+                assertThat(named.canHandleInvocations.get()).isEqualTo(0);
+                assertThatThrownBy(() -> handler.handle(new State(), "named")).isInstanceOf(IllegalArgumentException.class);
+            });
+        });
+
+        describe("CommandHandler.all", () -> {
+            it("should select handlers that declare a command type by class, without invoking their canHandle()", () -> {
+                Handler integers = new Handler("integers");
+                Handler numbers = new Handler("numbers");
+                CommandHandler<Object, String, State> handler = CommandHandler.all(
+                    CommandHandler.forType(Integer.class, integers), CommandHandler.forType(Number.class, numbers));
+
+                assertThat(handler.canHandle(1)).isTrue();
+                assertThat(reply(handler, 1)).isEqualTo("integers");
+                assertThat(reply(handler, 1L)).isEqualTo("numbers");
+                assertThat(handler.canHandle("1")).isFalse();
+                assertThat(integers.canHandleInvocations.get()).isEqualTo(0);
+                assertThat(numbers.canHandleInvocations.get()).isEqualTo(0);
+            });
+
+            it("should apply the first matching handler, mixing declared command types and canHandle()", () -> {
+                Handler special = new Handler("special");
+                CommandHandler<Object, String, State> strings = typed("strings", String.class);
+                Handler never = new Handler("never");
+                CommandHandler<Object, String, State> handler = CommandHandler.all(special, strings, never);
+
+                assertThat(reply(handler, "special")).isEqualTo("special");
+                assertThat(reply(handler, "never")).isEqualTo("strings");
+                assertThat(never.canHandleInvocations.get()).isEqualTo(0);
+            });
+
+            it("should select the handler that it would delegate a command to", () -> {
+                Handler special = new Handler("special");
+                CommandHandler<Object, String, State> strings = typed("strings", String.class);
+                CommandHandler<Object, String, State> handler = CommandHandler.all(special, strings);
+
+                assertThat(handler.select("special").get()).isSameAs(special);
+                assertThat(handler.select("other").get()).isSameAs(strings);
+                assertThat(handler.select(1).isEmpty()).isTrue();
+                assertThat(special.select("other").isEmpty()).isTrue();
+            });
+
+            it("should fail to handle a command that no handler can handle", () -> {
+                CommandHandler<Object, String, State> handler = CommandHandler.all(typed("strings", String.class));
+
+                assertThat(handler.canHandle(1)).isFalse();
+                assertThatThrownBy(() -> handler.handle(new State(), 1)).isInstanceOf(IllegalArgumentException.class);
+            });
+        });
+
+        describe("CommandHandler.orElse", () -> {
+            it("should try handlers in the order in which they were chained", () -> {
+                CommandHandler<Object, String, State> handler = new Handler("a")
+                    .orElse(typed("strings", String.class))
+                    .orElse(typed("numbers", Number.class));
+
+                assertThat(reply(handler, "a")).isEqualTo("a");
+                assertThat(reply(handler, "b")).isEqualTo("strings");
+                assertThat(reply(handler, 1)).isEqualTo("numbers");
+                assertThat(handler.canHandle(true)).isFalse();
+            });
+        });
+    }
+}
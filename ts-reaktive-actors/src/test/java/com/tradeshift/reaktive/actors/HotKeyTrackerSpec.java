@@ -0,0 +1,95 @@
+package com.tradeshift.reaktive.actors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.time.Duration;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.Seq;
+
+@RunWith(CuppaRunner.class)
+public class HotKeyTrackerSpec extends SharedActorSystemSpec {
+    {
+        describe("HotKeySketch", () -> {
+            it("should find the most frequent keys among many more keys than it has counters for", () -> {
+                HotKeySketch sketch = new HotKeySketch(100);
+                for (int i = 0; i < 100000; i++) {
+                    sketch.offer("entity-" + i);
+                    if (i % 10 == 0) {
+                        sketch.offer("hot");
+                    }
+                    if (i % 20 == 0) {
+                        sketch.offer("warm");
+                    }
+                }
+
+                Seq<Tuple2<String, Long>> top = sketch.drainTop(2);
+                assertThat(top.map(t -> t._1)).containsExactly("hot", "warm");
+                // Counts are overestimated by at most the smallest counter, which is about 100000 / 100 here.
+                assertThat(top.head()._2).isBetween(10000L, 11100L);
+                assertThat(sketch.drainTop(2)).isEmpty();
+            });
+        });
+
+        describe("HotKeyTracker.Sampler", () -> {
+            it("should combine the messages that several threads have routed", () -> {
+                HotKeyTracker.Sampler sampler = new HotKeyTracker.Sampler(ConfigFactory.parseString("sample-rate = 1, capacity = 10"));
+                Thread[] threads = new Thread[4];
+                for (int t = 0; t < threads.length; t++) {
+                    String own = "entity-" + t;
+                    threads[t] = new Thread(() -> {
+                        for (int i = 0; i < 100; i++) {
+                            sampler.messageRouted("shared", "1");
+                            sampler.messageRouted(own, "2");
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread: threads) {
+                    thread.join();
+                }
+
+                HotKeyTracker.HotKeys hotKeys = sampler.drainTop(2);
+                assertThat(hotKeys.getEntities().head()).isEqualTo(Tuple.of("shared", 400L));
+                assertThat(hotKeys.getEntities().last()._2).isEqualTo(100L);
+                assertThat(hotKeys.getShards()).containsExactlyInAnyOrder(Tuple.of("1", 400L), Tuple.of("2", 400L));
+                assertThat(sampler.drainTop(2).getEntities()).isEmpty();
+            });
+        });
+
+        describe("HotKeyTracker", () -> {
+            it("should report the hottest entities and shards of the latest interval", () -> {
+                Config config = ConfigFactory.parseString("sample-rate = 1, capacity = 10, top = 2, interval = 1 second");
+                HotKeyTracker.Sampler sampler = new HotKeyTracker.Sampler(config);
+                for (int i = 0; i < 5; i++) sampler.messageRouted("a", "1");
+                for (int i = 0; i < 3; i++) sampler.messageRouted("b", "2");
+                sampler.messageRouted("c", "1");
+                ActorRef tracker = system.actorOf(HotKeyTracker.props("test", sampler, config));
+
+                TestKit probe = new TestKit(system);
+                HotKeyTracker.HotKeys hotKeys = probe.awaitAssert(Duration.ofMillis(1500), () -> {
+                    probe.send(tracker, HotKeyTracker.GetHotKeys.instance);
+                    HotKeyTracker.HotKeys reply = probe.expectMsgClass(HotKeyTracker.HotKeys.class);
+                    assertThat(reply.getEntities()).isNotEmpty();
+                    return reply;
+                });
+                assertThat(hotKeys.getEntities().map(t -> t._1)).containsExactly("a", "b");
+                assertThat(hotKeys.getShards().map(t -> t._1)).containsExactly("1", "2");
+                // 5 messages in 1 second
+                assertThat(hotKeys.getEntities().head()._2).isEqualTo(5L);
+            });
+        });
+    }
+}
@@ -0,0 +1,114 @@
+package com.tradeshift.reaktive.actors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.time.Duration;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.actors.AbstractStatefulPersistentActorSpec.MyActor;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.javadsl.TestKit;
+
+@RunWith(CuppaRunner.class)
+public class PassivationCoordinatorSpec extends SharedActorSystemSpec {
+    private final PersistentActorMetrics metrics = new PersistentActorMetrics("test");
+
+    {
+        describe("PassivationCoordinator", () -> {
+            it("should evict the entity with the fewest commands relative to its recovery time", () -> {
+                PassivationCoordinator coordinator = new PassivationCoordinator(2);
+                TestKit a = new TestKit(system);
+                TestKit b = new TestKit(system);
+                TestKit c = new TestKit(system);
+
+                coordinator.activated(a.getRef(), 10, metrics);
+                coordinator.activated(b.getRef(), 0, metrics);
+                for (int i = 0; i < 5; i++) {
+                    coordinator.touched(b.getRef());
+                }
+                // a: 1 * 11ms, b: 6 * 1ms
+                coordinator.activated(c.getRef(), 0, metrics);
+
+                b.expectMsgEquals(PassivationCoordinator.Evict.instance);
+                a.expectNoMessage(Duration.ofMillis(100));
+                c.expectNoMessage(Duration.ofMillis(100));
+            });
+
+            it("should value entities on top of the latest evicted one, so long idle entities are evicted eventually", () -> {
+                PassivationCoordinator coordinator = new PassivationCoordinator(2);
+                TestKit a = new TestKit(system);
+                TestKit b = new TestKit(system);
+                TestKit c = new TestKit(system);
+                TestKit d = new TestKit(system);
+
+                coordinator.activated(a.getRef(), 3, metrics);
+                coordinator.activated(b.getRef(), 0, metrics);
+                coordinator.activated(c.getRef(), 0, metrics);
+                b.expectMsgEquals(PassivationCoordinator.Evict.instance);
+
+                // After b's eviction at 1, c is worth 1 + 4 * 1ms, which is more than a's 4ms of recovery.
+                for (int i = 0; i < 3; i++) {
+                    coordinator.touched(c.getRef());
+                }
+                coordinator.activated(d.getRef(), 0, metrics);
+                a.expectMsgEquals(PassivationCoordinator.Evict.instance);
+                c.expectNoMessage(Duration.ofMillis(100));
+            });
+
+            it("should not evict entities that have stopped", () -> {
+                PassivationCoordinator coordinator = new PassivationCoordinator(1);
+                TestKit a = new TestKit(system);
+                TestKit b = new TestKit(system);
+
+                coordinator.activated(a.getRef(), 0, metrics);
+                coordinator.stopped(a.getRef());
+                coordinator.activated(b.getRef(), 0, metrics);
+
+                a.expectNoMessage(Duration.ofMillis(100));
+                b.expectNoMessage(Duration.ofMillis(100));
+            });
+        });
+
+        describe("AbstractStatefulPersistentActor", () -> {
+            it("should passivate itself when evicted", () -> {
+                TestKit parent = new TestKit(system);
+                ActorRef actor = parent.childActorOf(Props.create(MyActor.class));
+                parent.send(actor, "1:a");
+                parent.expectMsgEquals(Done.getInstance());
+
+                actor.tell(PassivationCoordinator.Evict.instance, ActorRef.noSender());
+                assertThat(parent.expectMsgClass(ShardRegion.Passivate.class).stopMessage()).isNotNull();
+                assertThat(parent.getLastSender()).isEqualTo(actor);
+            });
+
+            it("should finish handling its commands before passivating and stopping", () -> {
+                TestKit parent = new TestKit(system);
+                ActorRef actor = parent.childActorOf(Props.create(MyActor.class));
+                parent.send(actor, "1:a");
+                parent.expectMsgEquals(Done.getInstance());
+
+                // The async handler takes 2000ms
+                parent.send(actor, "a:b");
+                actor.tell(PassivationCoordinator.Evict.instance, ActorRef.noSender());
+                parent.expectMsgEquals(Duration.ofMillis(3000), Done.getInstance());
+                Object stop = parent.expectMsgClass(ShardRegion.Passivate.class).stopMessage();
+
+                // The shard region sends the stop message, which another command may still be ahead of.
+                parent.watch(actor);
+                parent.send(actor, "a:c");
+                parent.send(actor, stop);
+                parent.expectMsgEquals(Duration.ofMillis(3000), Done.getInstance());
+                parent.expectTerminated(actor);
+            });
+        });
+    }
+}
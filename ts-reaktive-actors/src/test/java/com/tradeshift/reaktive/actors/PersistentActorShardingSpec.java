@@ -0,0 +1,171 @@
+package com.tradeshift.reaktive.actors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.japi.Util;
+import akka.stream.javadsl.Source;
+import akka.testkit.TestActor;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.collection.Vector;
+import scala.collection.immutable.IndexedSeq;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+@RunWith(CuppaRunner.class)
+public class PersistentActorShardingSpec extends SharedActorSystemSpec {
+    private static final Logger log = LoggerFactory.getLogger(PersistentActorShardingSpec.class);
+    private static final int SHARDS = 256;
+    private static final int NODES = 10;
+
+    /** Realistic entity id sets, by name */
+    private static final Map<String, Vector<String>> idSets = new HashMap<>();
+    static {
+        Random random = new Random(42);
+        idSets.put("prefixed UUIDs", Vector.range(0, 100000).map(i -> "doc_" + new UUID(random.nextLong(), random.nextLong())));
+        idSets.put("prefixed sequence numbers", Vector.range(0, 100000).map(i -> "invoice-" + String.format("%08d", i)));
+        idSets.put("numeric ids", Vector.range(0, 100000).map(i -> String.valueOf(1000000 + i * 16)));
+    }
+
+    /**
+     * Returns how many more entities than average end up on the busiest node, when placing shards on nodes round-robin
+     * (shard N on node N % NODES). This only measures how evenly the shard id strategy spreads entity ids over shards,
+     * not how shards are allocated in a cluster.
+     */
+    private static double skew(ShardIdStrategy strategy, Vector<String> ids) {
+        PersistentActorSharding<String> sharding = PersistentActorSharding.of("test", Props.empty(), Function.identity(), SHARDS, strategy);
+        int[] perNode = new int[NODES];
+        for (String id: ids) {
+            perNode[Math.floorMod(Integer.parseInt(sharding.getShardId(id)), NODES)]++;
+        }
+        int max = Vector.ofAll(perNode).max().get();
+        return ((double) max) / (ids.size() / NODES) - 1;
+    }
+
+    private static IndexedSeq<String> shards(int from, int to) {
+        return Util.immutableIndexedSeq(Vector.range(from, to).map(String::valueOf));
+    }
+
+    {
+        describe("PersistentActorSharding with ShardIdStrategy.MURMUR3", () -> {
+            it("should place all entities on non-negative shards", () -> {
+                PersistentActorSharding<String> sharding = PersistentActorSharding.of("test", Props.empty(), Function.identity(), SHARDS, ShardIdStrategy.MURMUR3);
+                for (String id: idSets.get("prefixed UUIDs")) {
+                    assertThat(Integer.parseInt(sharding.getShardId(id))).isBetween(0, SHARDS - 1);
+                }
+            });
+
+            it("should divide realistic entity ids evenly over nodes, when shards are placed on nodes round-robin", () -> {
+                for (Map.Entry<String, Vector<String>> ids: idSets.entrySet()) {
+                    double murmur3 = skew(ShardIdStrategy.MURMUR3, ids.getValue());
+                    log.debug("Busiest node skew for {}: hashCode {}, murmur3 {}", ids.getKey(),
+                        skew(ShardIdStrategy.HASH_CODE, ids.getValue()), murmur3);
+                    assertThat(murmur3).as("skew for %s", ids.getKey()).isLessThan(0.05);
+                }
+            });
+        });
+
+        describe("PersistentActorSharding.warmUp", () -> {
+            it("should send WarmUp to each entity, completing even if some entities don't respond", () -> {
+                PersistentActorSharding<String> sharding = PersistentActorSharding.of("test", Props.empty(), Function.identity());
+                TestKit region = new TestKit(system);
+                region.setAutoPilot(new TestActor.AutoPilot() {
+                    public TestActor.AutoPilot run(ActorRef sender, Object msg) {
+                        if (!((PersistentActorSharding.WarmUp) msg).getEntityId().equals("stuck")) {
+                            sender.tell(Done.getInstance(), ActorRef.noSender());
+                        }
+                        return this;
+                    }
+                });
+
+                CompletionStage<Done> done = sharding.warmUp(system, region.getRef(), Source.from(Arrays.asList("a", "stuck", "b")),
+                    2, 100, java.time.Duration.ofMillis(200));
+
+                assertThat(done.toCompletableFuture().get(3, TimeUnit.SECONDS)).isEqualTo(Done.getInstance());
+                assertThat(Vector.ofAll(region.receiveN(3)).map(m -> ((PersistentActorSharding.WarmUp) m).getEntityId()))
+                    .containsExactlyInAnyOrder("a", "stuck", "b");
+            });
+
+            it("should have AbstractStatefulPersistentActor reply to WarmUp", () -> {
+                ActorRef actor = system.actorOf(Props.create(AbstractStatefulPersistentActorSpec.MyActor.class));
+                TestKit probe = new TestKit(system);
+                probe.send(actor, new PersistentActorSharding.WarmUp("ignored"));
+                probe.expectMsgEquals(Done.getInstance());
+            });
+        });
+
+        describe("LoadAwareShardAllocationStrategy", () -> {
+            ActorRef nodeA = new TestKit(system).getRef();
+            ActorRef nodeB = new TestKit(system).getRef();
+            ActorRef nodeC = new TestKit(system).getRef();
+
+            it("should allocate new shards on the node that receives the fewest messages", () -> {
+                LoadAwareShardAllocationStrategy strategy = new LoadAwareShardAllocationStrategy(0.2, 3);
+                for (int i = 0; i < 100; i++) strategy.messageRouted("0");
+                for (int i = 0; i < 10; i++) strategy.messageRouted("1");
+                strategy.updateRates();
+
+                Map<ActorRef, IndexedSeq<String>> allocations = new HashMap<>();
+                allocations.put(nodeA, shards(0, 1));
+                allocations.put(nodeB, shards(1, 2));
+                allocations.put(nodeC, shards(2, 4));
+
+                assertThat(Await.result(strategy.allocateShard(nodeA, "4", allocations), Duration.Inf())).isEqualTo(nodeC);
+            });
+
+            it("should move the busiest shards off the busiest node until nodes are balanced", () -> {
+                LoadAwareShardAllocationStrategy strategy = new LoadAwareShardAllocationStrategy(0.2, 3);
+                Map<ActorRef, IndexedSeq<String>> allocations = new HashMap<>();
+                allocations.put(nodeA, shards(0, 10));
+                allocations.put(nodeB, shards(10, 20));
+                allocations.put(nodeC, shards(20, 30));
+                // Shards 0 and 1 are hot, all other shards receive one message each.
+                for (int shard = 0; shard < 30; shard++) {
+                    int messages = (shard < 2) ? 50 : 1;
+                    for (int i = 0; i < messages; i++) strategy.messageRouted(String.valueOf(shard));
+                }
+
+                Set<String> moved = Await.result(strategy.rebalance(allocations, new HashSet<>()), Duration.Inf());
+                assertThat(moved).containsExactly("0");
+
+                // No further rebalancing while a rebalance is in progress
+                assertThat(Await.result(strategy.rebalance(allocations, moved), Duration.Inf())).isEmpty();
+            });
+
+            it("should not rebalance nodes whose load is within the threshold", () -> {
+                LoadAwareShardAllocationStrategy strategy = new LoadAwareShardAllocationStrategy(0.2, 3);
+                Map<ActorRef, IndexedSeq<String>> allocations = new HashMap<>();
+                allocations.put(nodeA, shards(0, 10));
+                allocations.put(nodeB, shards(10, 20));
+                for (int shard = 0; shard < 20; shard++) {
+                    int messages = (shard < 10) ? 11 : 10;
+                    for (int i = 0; i < messages; i++) strategy.messageRouted(String.valueOf(shard));
+                }
+
+                assertThat(Await.result(strategy.rebalance(allocations, new HashSet<>()), Duration.Inf())).isEmpty();
+            });
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package com.tradeshift.reaktive.materialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.time.Duration;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.typesafe.config.ConfigFactory;
+
+@RunWith(CuppaRunner.class)
+public class AdaptiveBatchSizeSpec {
+    private static final long FAST = Duration.ofMillis(10).toNanos();
+    private static final long SLOW = Duration.ofMillis(200).toNanos();
+
+    {
+        describe("AdaptiveBatchSize", () -> {
+            it("should grow by one for each full batch that completes within the target latency, up to max", () -> {
+                AdaptiveBatchSize size = new AdaptiveBatchSize(1, 6, Duration.ofMillis(100), 4);
+                size.onSuccess(4, FAST);
+                assertThat(size.getBatchSize()).isEqualTo(5);
+                size.onSuccess(5, FAST);
+                size.onSuccess(6, FAST);
+                assertThat(size.getBatchSize()).isEqualTo(6);
+            });
+
+            it("should not grow on batches that weren't full", () -> {
+                AdaptiveBatchSize size = new AdaptiveBatchSize(1, 256, Duration.ofMillis(100), 4);
+                size.onSuccess(2, FAST);
+                assertThat(size.getBatchSize()).isEqualTo(4);
+            });
+
+            it("should halve on a slow or failed batch, down to min", () -> {
+                AdaptiveBatchSize size = new AdaptiveBatchSize(3, 256, Duration.ofMillis(100), 16);
+                size.onSuccess(16, SLOW);
+                assertThat(size.getBatchSize()).isEqualTo(8);
+                size.onFailure();
+                assertThat(size.getBatchSize()).isEqualTo(4);
+                size.onFailure();
+                assertThat(size.getBatchSize()).isEqualTo(3);
+            });
+
+            it("should keep a fixed size when not enabled", () -> {
+                AdaptiveBatchSize size = AdaptiveBatchSize.fromConfig(ConfigFactory.parseString("enabled = false"), 4);
+                size.onSuccess(4, FAST);
+                size.onFailure();
+                assertThat(size.getBatchSize()).isEqualTo(4);
+            });
+        });
+    }
+}
@@ -5,6 +5,7 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.forgerock.cuppa.Cuppa.describe;
 import static org.forgerock.cuppa.Cuppa.it;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -70,6 +71,13 @@ public class GroupWhileSpec extends SharedActorSystemSpec {
                 assertThat(run(1,2,2,2,3,2,4,4)).isEqualTo(Vector.of(Vector.of(1), Vector.of(2,2,2), Vector.of(3), Vector.of(2), Vector.of(4,4)));
             });
 
+            it("should keep groups apart when downstream is slow", () -> {
+                List<Seq<Integer>> result = Source.from(Vector.of(1,1,2,3,3,4)).via(groupWhile)
+                    .throttle(1, Duration.ofMillis(20))
+                    .runWith(Sink.seq(), materializer).toCompletableFuture().get(10, TimeUnit.SECONDS);
+                assertThat(result).containsExactly(Vector.of(1,1), Vector.of(2), Vector.of(3,3), Vector.of(4));
+            });
+
             it("should emit an incomplete group when the idle timeout elapses", () -> {
                 TestKit probe = new TestKit(system);
                 CompletionStage<Integer> never = new CompletableFuture<>();
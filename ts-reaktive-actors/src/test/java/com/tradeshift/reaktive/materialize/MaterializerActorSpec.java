@@ -10,8 +10,10 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.tradeshift.reaktive.materialize.MaterializerActor.CreateWorker;
+import com.tradeshift.reaktive.materialize.MaterializerActor.Reimport;
 import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
 import com.typesafe.config.ConfigFactory;
 
@@ -25,9 +27,11 @@ import akka.actor.Props;
 import akka.stream.javadsl.Source;
 import akka.testkit.javadsl.TestKit;
 import io.vavr.collection.HashSet;
+import io.vavr.collection.Seq;
 import io.vavr.collection.Set;
 import io.vavr.collection.Stream;
 import io.vavr.collection.Vector;
+import io.vavr.control.Option;
 import static io.vavr.control.Option.none;
 
 @RunWith(CuppaRunner.class)
@@ -97,6 +101,50 @@ public class MaterializerActorSpec extends SharedActorSystemSpec {
 
                     system.stop(actor);
                 });
+
+                it("re-imports only the requested entities", () -> {
+                    ActorRef actor = system.actorOf(Props.create(TestActor.class, () ->
+                        new TestActor(Source.from(events), materialized.getRef())));
+                    assertReceiveOutOfOrder(events);
+
+                    actor.tell(new Reimport(HashSet.of("entity3", "entity7")), materialized.getRef());
+                    materialized.expectMsgEquals(Done.getInstance());
+                    assertReceiveOutOfOrder(Vector.of(events.apply(3), events.apply(7)));
+                    materialized.expectNoMessage(java.time.Duration.ofMillis(200));
+
+                    system.stop(actor);
+                });
+
+                it("re-imports the requested entities by reading their own events, if supported", () -> {
+                    AtomicInteger scans = new AtomicInteger();
+                    ActorRef actor = system.actorOf(Props.create(ByEntityTestActor.class, () ->
+                        new ByEntityTestActor(events, materialized.getRef(), scans)));
+                    assertReceiveOutOfOrder(events);
+
+                    actor.tell(new Reimport(HashSet.of("entity3", "entity7")), materialized.getRef());
+                    materialized.expectMsgEquals(Done.getInstance());
+                    assertReceiveOutOfOrder(Vector.of(events.apply(3), events.apply(7)));
+                    materialized.expectNoMessage(java.time.Duration.ofMillis(200));
+                    assertThat(scans.get()).isEqualTo(1); // only the main import
+
+                    system.stop(actor);
+                });
+
+                it("hands chunks of batch-size events in journal order to materializeBatch", () -> {
+                    ActorRef actor = system.actorOf(Props.create(BatchTestActor.class, () ->
+                        new BatchTestActor(Source.from(events), materialized.getRef())));
+
+                    Vector<Envelope> received = Vector.empty();
+                    while (received.size() < events.size()) {
+                        @SuppressWarnings("unchecked")
+                        Seq<Envelope> batch = materialized.expectMsgClass(Seq.class);
+                        assertThat(batch.size()).isLessThanOrEqualTo(256);
+                        received = received.appendAll(batch);
+                    }
+                    assertThat(received).isEqualTo(events);
+
+                    system.stop(actor);
+                });
             });
         });
     }
@@ -112,6 +160,18 @@ public class MaterializerActorSpec extends SharedActorSystemSpec {
             this.index = index;
         }
 
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        public String getEntityId() {
+            return entityId;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
         @Override
         public boolean equals(Object b) {
             Envelope e = (Envelope) b;
@@ -129,6 +189,43 @@ public class MaterializerActorSpec extends SharedActorSystemSpec {
         }
     }
 
+    static class BatchTestActor extends TestActor {
+        private final ActorRef materialized;
+
+        public BatchTestActor(Source<Envelope,NotUsed> events, ActorRef materialized) {
+            super(events, materialized);
+            this.materialized = materialized;
+        }
+
+        @Override
+        protected CompletionStage<Done> materializeBatch(Seq<Envelope> envelopes) {
+            materialized.tell(envelopes, self());
+            return CompletableFuture.completedFuture(Done.getInstance());
+        }
+    }
+
+    static class ByEntityTestActor extends TestActor {
+        private final Vector<Envelope> events;
+        private final AtomicInteger scans;
+
+        public ByEntityTestActor(Vector<Envelope> events, ActorRef materialized, AtomicInteger scans) {
+            super(Source.from(events), materialized);
+            this.events = events;
+            this.scans = scans;
+        }
+
+        @Override
+        protected Source<Envelope, NotUsed> loadEvents(Instant since) {
+            scans.incrementAndGet();
+            return super.loadEvents(since);
+        }
+
+        @Override
+        protected Option<Source<Envelope, NotUsed>> loadEventsFor(String entityId) {
+            return Option.some(Source.from(events.filter(e -> e.entityId.equals(entityId))));
+        }
+    }
+
     static class TestActor extends MaterializerActor<Envelope> {
         private final Source<Envelope,NotUsed> events;
         private final ActorRef materialized;
@@ -0,0 +1,121 @@
+package com.tradeshift.reaktive.materialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerReimportEvent;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerReimportEvent.Part;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class MaterializerReimportsSpec {
+    {
+        describe("empty MaterializerReimports", () -> {
+            MaterializerReimports r = MaterializerReimports.empty();
+            UUID id = UUID.randomUUID();
+
+            it("should divide a new re-import into parts of equal length", () -> {
+                MaterializerReimports result = r.applyEvent(r.start(id, HashSet.of("a", "b"),
+                    Instant.ofEpochMilli(1000), Instant.ofEpochMilli(5000), 4), 7);
+
+                assertThat(result.getIds()).containsExactly(id);
+                assertThat(result.getEntityIds(id)).containsOnly("a", "b");
+                assertThat(result.getParts(id).map(Part::getTimestamp)).containsExactly(1000L, 2000L, 3000L, 4000L);
+                assertThat(result.getParts(id).map(Part::getEndTimestamp)).containsExactly(2000L, 3000L, 4000L, 5000L);
+                assertThat(result.getTimestamp()).contains(Instant.ofEpochMilli(1000));
+                assertThat(result.getFirstSequenceNr()).contains(7L);
+            });
+
+            it("should ignore progress for an unknown re-import", () -> {
+                assertThat(r.applyEvent(r.onProgress(id, Instant.ofEpochMilli(2000), Instant.ofEpochMilli(1500)), 7).isEmpty()).isTrue();
+            });
+        });
+
+        describe("MaterializerReimports with 1 re-import by entity", () -> {
+            UUID id = UUID.randomUUID();
+            MaterializerReimports empty = MaterializerReimports.empty();
+            MaterializerReimports r = empty.applyEvent(empty.startByEntity(id, HashSet.of("a", "b", "c"), Instant.ofEpochMilli(3000)), 7);
+
+            it("should have a single part spanning the whole time range", () -> {
+                assertThat(r.isByEntity(id)).isTrue();
+                assertThat(r.getParts(id).map(Part::getTimestamp)).containsExactly(0L);
+                assertThat(r.getParts(id).map(Part::getEndTimestamp)).containsExactly(3000L);
+            });
+
+            it("should only retain entities that have yet to complete", () -> {
+                MaterializerReimports result = r.applyEvent(r.onEntitiesDone(id, Vector.of("a", "c")), 8);
+                assertThat(result.getEntityIds(id)).containsOnly("b");
+                assertThat(result.isByEntity(id)).isTrue();
+            });
+
+            it("should complete once all entities are done", () -> {
+                MaterializerReimports result = r.applyEvent(r.onEntitiesDone(id, Vector.of("a", "c")), 8);
+                result = result.applyEvent(result.onEntitiesDone(id, Vector.of("b")), 9);
+                assertThat(result.isEmpty()).isTrue();
+            });
+        });
+
+        describe("MaterializerReimports with 1 re-import", () -> {
+            UUID id = UUID.randomUUID();
+            MaterializerReimports empty = MaterializerReimports.empty();
+            MaterializerReimports r = empty.applyEvent(empty.start(id, HashSet.of("a"),
+                Instant.ofEpochMilli(1000), Instant.ofEpochMilli(3000), 2), 7);
+
+            it("should record progress of a part, retaining its entity IDs and sequence number", () -> {
+                MaterializerReimports result = r.applyEvent(r.onProgress(id, Instant.ofEpochMilli(3000), Instant.ofEpochMilli(2500)), 8);
+
+                assertThat(result.getParts(id).map(Part::getTimestamp)).containsExactly(1000L, 2500L);
+                assertThat(result.getEntityIds(id)).containsOnly("a");
+                assertThat(result.getFirstSequenceNr()).contains(7L);
+                assertThat(result.getRemainingMillis()).isEqualTo(1500);
+            });
+
+            it("should remove a part once it reaches its end timestamp", () -> {
+                MaterializerReimports result = r.applyEvent(r.onProgress(id, Instant.ofEpochMilli(2000), Instant.ofEpochMilli(2000)), 8);
+
+                assertThat(result.getParts(id).map(Part::getEndTimestamp)).containsExactly(3000L);
+                assertThat(result.getTimestamp()).contains(Instant.ofEpochMilli(2000));
+            });
+
+            it("should complete once all parts are done", () -> {
+                MaterializerReimports result = r.applyEvent(r.onProgress(id, Instant.ofEpochMilli(2000), Instant.ofEpochMilli(2000)), 8);
+                result = result.applyEvent(result.onProgress(id, Instant.ofEpochMilli(3000), Instant.ofEpochMilli(3000)), 9);
+
+                assertThat(result.isEmpty()).isTrue();
+                assertThat(result.getTimestamp()).isEmpty();
+                assertThat(result.getFirstSequenceNr()).isEmpty();
+            });
+
+            it("should be removed when cancelled", () -> {
+                assertThat(r.applyEvent(r.cancel(id), 8).isEmpty()).isTrue();
+            });
+
+            it("should restate re-imports started before a sequence number, and be recovered from that", () -> {
+                MaterializerReimports progressed = r.applyEvent(r.onProgress(id, Instant.ofEpochMilli(3000), Instant.ofEpochMilli(2500)), 8);
+
+                assertThat(progressed.compact(7)).isEmpty();
+                Seq<MaterializerReimportEvent> compacted = progressed.compact(8);
+                assertThat(compacted).hasSize(1);
+
+                MaterializerReimports result = progressed.applyEvent(compacted.head(), 30);
+                assertThat(result.getFirstSequenceNr()).contains(30L);
+                assertThat(result.getParts(id)).isEqualTo(progressed.getParts(id));
+                assertThat(result.getEntityIds(id)).containsOnly("a");
+
+                MaterializerReimports recovered = MaterializerReimports.empty().applyEvent(compacted.head(), 30);
+                assertThat(recovered.getParts(id)).isEqualTo(progressed.getParts(id));
+                assertThat(recovered.getEntityIds(id)).containsOnly("a");
+            });
+        });
+    }
+}
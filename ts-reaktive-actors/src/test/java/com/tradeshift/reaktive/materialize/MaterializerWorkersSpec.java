@@ -101,6 +101,13 @@ public class MaterializerWorkersSpec {
                 assertThat(result.getEndTimestamp(worker1)).contains(Instant.ofEpochMilli(2000000));
             });
 
+            it("should split the range until now in half, if it's large enough", () -> {
+                assertThat(w.getSplitTimestamp(Instant.ofEpochMilli(3000000), Duration.ofMillis(2000000)))
+                    .contains(Instant.ofEpochMilli(2000000));
+                assertThat(w.getSplitTimestamp(Instant.ofEpochMilli(3000000), Duration.ofMillis(2000001)))
+                    .isEmpty();
+            });
+
             it("should not start a new worker close on an existing timestamp", () -> {
                 MaterializerWorkers result = w.applyEvent(w.startWorker(Instant.ofEpochMilli(1000000), none()));
                 assertThat(result.getIds()).containsExactly(worker1);
@@ -132,6 +139,24 @@ public class MaterializerWorkersSpec {
                 assertThat(result.getTimestamp(worker2)).isEqualTo(Instant.ofEpochMilli(2000000));
             });
 
+            it("should split the worker with the largest remaining range", () -> {
+                // worker 1 has 500000ms left, worker 2 has 300000ms left until now.
+                assertThat(w.getSplitTimestamp(Instant.ofEpochMilli(2300000), Duration.ofMillis(1000)))
+                    .contains(Instant.ofEpochMilli(1250000));
+                // worker 1 has 500000ms left, worker 2 has 700000ms left until now.
+                assertThat(w.getSplitTimestamp(Instant.ofEpochMilli(2700000), Duration.ofMillis(1000)))
+                    .contains(Instant.ofEpochMilli(2350000));
+            });
+
+            it("should merge a split worker again once it catches up", () -> {
+                MaterializerWorkers split = w.applyEvent(w.startWorker(
+                    w.getSplitTimestamp(Instant.ofEpochMilli(2300000), Duration.ofMillis(1000)).get(), none()));
+                assertThat(split.getIds()).hasSize(3);
+
+                MaterializerWorkers result = split.applyEvent(split.onWorkerProgress(worker1, Instant.ofEpochMilli(1250000)));
+                assertThat(result.getIds()).hasSize(2).doesNotContain(worker1);
+            });
+
             it("should start a worker between worker 1's end and worker 2's start", () -> {
                 MaterializerWorkers result = w.applyEvent(w.startWorker(Instant.ofEpochMilli(1700000), none()));
                 assertThat(result.getIds()).hasSize(3);
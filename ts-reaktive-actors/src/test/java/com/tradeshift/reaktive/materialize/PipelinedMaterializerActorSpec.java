@@ -0,0 +1,160 @@
+package com.tradeshift.reaktive.materialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.forgerock.cuppa.Cuppa.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.materialize.MaterializerActor.Progress;
+import com.tradeshift.reaktive.materialize.MaterializerActor.QueryProgress;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.Envelope;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.TestActor;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.ConfigFactory;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Set;
+import io.vavr.collection.Stream;
+import io.vavr.collection.Vector;
+import scala.concurrent.duration.FiniteDuration;
+
+@RunWith(CuppaRunner.class)
+public class PipelinedMaterializerActorSpec extends SharedActorSystemSpec {
+    public PipelinedMaterializerActorSpec() {
+        super(ConfigFactory.parseString("ts-reaktive.actors.materializer.pipeline-partitions = 8"));
+    }
+
+    private TestKit materialized;
+
+    {
+        describe("MaterializerActor with pipeline-partitions", () -> {
+            beforeEach(() -> {
+                materialized = new TestKit(system);
+            });
+
+            when("importing events for the same entity", () -> {
+                Vector<Envelope> events = Stream.range(0, 50).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), "entity", i)
+                ).toVector();
+
+                it("runs sequentially", () -> {
+                    ActorRef actor = system.actorOf(Props.create(TestActor.class, () ->
+                        new TestActor(Source.from(events), materialized.getRef())));
+
+                    events.forEach(materialized::expectMsgEquals);
+
+                    system.stop(actor);
+                });
+            });
+
+            when("importing events for different entities", () -> {
+                Vector<Envelope> events = Stream.range(0, 400).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), "entity" + (i % 40), i)
+                ).toVector();
+
+                it("keeps events of each entity in order, while running entities in parallel", () -> {
+                    AtomicInteger maxInFlight = new AtomicInteger();
+                    ActorRef actor = system.actorOf(Props.create(CountingTestActor.class, () ->
+                        new CountingTestActor(Source.from(events), materialized.getRef(), maxInFlight)));
+
+                    Vector<Envelope> received = Vector.ofAll(materialized.receiveN(events.size(), FiniteDuration.create(20, TimeUnit.SECONDS)))
+                        .map(Envelope.class::cast);
+
+                    assertThat(received).containsOnlyElementsOf(events).hasSameSizeAs(events);
+                    assertThat(maxInFlight.get()).isGreaterThan(1);
+                    received.groupBy(e -> e.getEntityId()).values().forEach(perEntity ->
+                        assertThat(perEntity.map(e -> e.getIndex())).isEqualTo(perEntity.map(e -> e.getIndex()).sorted()));
+
+                    system.stop(actor);
+                });
+            });
+
+            when("importing several events with the same timestamp", () -> {
+                // three events per second, of which event 13 (the second one at 1004000) doesn't complete at first
+                Vector<Envelope> events = Stream.range(0, 30).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + (i / 3) * 1000), (i == 13) ? "held" : "entity" + i, i)
+                ).toVector();
+
+                it("doesn't skip the remaining events of a timestamp when restarting", () -> {
+                    ActorRef actor = system.actorOf(Props.create(HoldingTestActor.class, () ->
+                        new HoldingTestActor(Source.from(events), materialized.getRef())), "same-timestamp");
+                    Set<Object> received = HashSet.empty();
+                    while (!received.containsAll(events.take(13))) {
+                        received = received.add(materialized.expectMsgClass(Envelope.class));
+                    }
+                    // Event 12 has completed, but progress can't include its timestamp while event 13 hasn't.
+                    // Later events keep arriving at [materialized], so progress is asked through its own probe.
+                    // Progress advances by one timestamp per update-accuracy, so it takes a few seconds to get there.
+                    TestKit query = new TestKit(system);
+                    query.awaitAssert(Duration.ofSeconds(10), () -> {
+                        query.send(actor, QueryProgress.instance);
+                        Progress progress = query.expectMsgClass(Progress.class);
+                        assertThat(progress.getWorkers().head().getTimestamp()).isEqualTo(Instant.ofEpochMilli(1003001));
+                        return null;
+                    });
+                    query.watch(actor);
+                    system.stop(actor);
+                    query.expectTerminated(actor);
+
+                    ActorRef restarted = system.actorOf(Props.create(TestActor.class, () ->
+                        new TestActor(Source.from(events), materialized.getRef())), "same-timestamp");
+                    while (!materialized.expectMsgClass(Envelope.class).equals(events.apply(13))) {
+                        // events that hadn't been recorded as progress yet are materialized again
+                    }
+
+                    system.stop(restarted);
+                });
+            });
+        });
+    }
+
+    /** Records the highest number of events that were being materialized at the same time */
+    static class CountingTestActor extends TestActor {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight;
+
+        public CountingTestActor(Source<Envelope,NotUsed> events, ActorRef materialized, AtomicInteger maxInFlight) {
+            super(events, materialized);
+            this.maxInFlight = maxInFlight;
+        }
+
+        @Override
+        protected CompletionStage<Done> materialize(Envelope envelope) {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            return super.materialize(envelope).whenComplete((done, x) -> inFlight.decrementAndGet());
+        }
+    }
+
+    /** Doesn't complete materializing the events of entity "held" */
+    static class HoldingTestActor extends TestActor {
+        public HoldingTestActor(Source<Envelope,NotUsed> events, ActorRef materialized) {
+            super(events, materialized);
+        }
+
+        @Override
+        protected CompletionStage<Done> materialize(Envelope envelope) {
+            if (envelope.getEntityId().equals("held")) {
+                return new CompletableFuture<>();
+            }
+            return super.materialize(envelope);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.tradeshift.reaktive.materialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.forgerock.cuppa.Cuppa.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.CompletableFutures;
+import com.tradeshift.reaktive.materialize.MaterializerActor.PartialBatchFailure;
+import com.tradeshift.reaktive.materialize.MaterializerActor.Progress;
+import com.tradeshift.reaktive.materialize.MaterializerActor.QueryProgress;
+import com.tradeshift.reaktive.materialize.MaterializerActor.ReimportQuarantined;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.Envelope;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.TestActor;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.ConfigFactory;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Stream;
+import io.vavr.collection.Vector;
+import scala.concurrent.duration.FiniteDuration;
+
+@RunWith(CuppaRunner.class)
+public class PoisonEventMaterializerActorSpec extends SharedActorSystemSpec {
+    public PoisonEventMaterializerActorSpec() {
+        super(ConfigFactory.parseString(
+            "ts-reaktive.actors.materializer.poison-events { enabled = true, retries = 2, min-backoff = 10 ms, max-backoff = 50 ms }"));
+    }
+
+    private TestKit materialized;
+
+    private void awaitQuarantined(ActorRef actor, String... entityIds) {
+        materialized.awaitAssert(() -> {
+            materialized.send(actor, QueryProgress.instance);
+            Progress progress = materialized.expectMsgClass(Progress.class);
+            assertThat(progress.getQuarantinedEntityIds()).containsOnly(entityIds);
+            return null;
+        });
+    }
+
+    {
+        describe("MaterializerActor with poison-events", () -> {
+            beforeEach(() -> {
+                materialized = new TestKit(system);
+            });
+
+            when("an event keeps failing to materialize", () -> {
+                Vector<Envelope> events = Stream.range(0, 20).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), (i == 5) ? "poison" : "entity" + i, i)
+                ).toVector();
+
+                it("retries and then quarantines it, while materializing the other events", () -> {
+                    AtomicBoolean failing = new AtomicBoolean(true);
+                    AtomicInteger attempts = new AtomicInteger();
+                    ActorRef actor = system.actorOf(Props.create(PoisonTestActor.class, () ->
+                        new PoisonTestActor(Source.from(events), materialized.getRef(), failing, attempts)));
+
+                    Vector<Object> received = Vector.ofAll(materialized.receiveN(events.size(), FiniteDuration.create(5, TimeUnit.SECONDS)));
+                    assertThat(received.filter(String.class::isInstance)).containsExactly("quarantined 5");
+                    assertThat(received.filter(Envelope.class::isInstance)).containsOnlyElementsOf(events.filter(e -> !e.getEntityId().equals("poison")));
+                    assertThat(attempts.get()).isEqualTo(3);
+                    awaitQuarantined(actor, "poison");
+
+                    system.stop(actor);
+                });
+
+                it("only retries the failing events when a batch partially fails", () -> {
+                    AtomicInteger attempts = new AtomicInteger();
+                    ActorRef actor = system.actorOf(Props.create(PartialBatchTestActor.class, () ->
+                        new PartialBatchTestActor(Source.from(events), materialized.getRef(), new AtomicBoolean(true), attempts)));
+
+                    Vector<Object> received = Vector.ofAll(materialized.receiveN(events.size(), FiniteDuration.create(5, TimeUnit.SECONDS)));
+                    assertThat(received.filter(String.class::isInstance)).containsExactly("quarantined 5");
+                    assertThat(received.filter(Envelope.class::isInstance)).containsOnlyElementsOf(events.filter(e -> !e.getEntityId().equals("poison")));
+                    materialized.expectNoMessage(Duration.ofMillis(200));
+                    assertThat(attempts.get()).isEqualTo(3);
+                    awaitQuarantined(actor, "poison");
+
+                    system.stop(actor);
+                });
+
+                it("fails the worker without retrying the events again when quarantine() fails", () -> {
+                    AtomicInteger attempts = new AtomicInteger();
+                    ActorRef actor = system.actorOf(Props.create(FailingQuarantineTestActor.class, () ->
+                        new FailingQuarantineTestActor(Source.from(events), materialized.getRef(), new AtomicBoolean(true), attempts)));
+
+                    Vector<Object> received = Vector.ofAll(materialized.receiveWhile(Duration.ofSeconds(2), Duration.ofMillis(500),
+                        events.size() * 2, msg -> msg));
+                    assertThat(received.filter(String.class::isInstance)).containsExactly("quarantined 5");
+                    assertThat(attempts.get()).isEqualTo(3);
+
+                    system.stop(actor);
+                });
+
+                it("replays quarantined entities on ReimportQuarantined", () -> {
+                    AtomicBoolean failing = new AtomicBoolean(true);
+                    ActorRef actor = system.actorOf(Props.create(PoisonTestActor.class, () ->
+                        new PoisonTestActor(Source.from(events), materialized.getRef(), failing, new AtomicInteger())));
+                    materialized.receiveN(events.size(), FiniteDuration.create(5, TimeUnit.SECONDS));
+                    awaitQuarantined(actor, "poison");
+
+                    failing.set(false);
+                    actor.tell(ReimportQuarantined.instance, materialized.getRef());
+                    materialized.expectMsgEquals(Done.getInstance());
+                    materialized.expectMsgEquals(events.apply(5));
+                    awaitQuarantined(actor);
+
+                    system.stop(actor);
+                });
+            });
+
+            when("an entity has several events that fail to materialize", () -> {
+                Vector<Envelope> events = Stream.range(0, 20).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), (i == 5 || i == 6) ? "poison" : "entity" + i, i)
+                ).toVector();
+
+                it("skips the later events as soon as the first one is quarantined", () -> {
+                    AtomicInteger attempts = new AtomicInteger();
+                    ActorRef actor = system.actorOf(Props.create(PoisonTestActor.class, () ->
+                        new PoisonTestActor(Source.from(events), materialized.getRef(), new AtomicBoolean(true), attempts)));
+
+                    Vector<Object> received = Vector.ofAll(materialized.receiveN(events.size() - 1, FiniteDuration.create(5, TimeUnit.SECONDS)));
+                    assertThat(received.filter(String.class::isInstance)).containsExactly("quarantined 5");
+                    materialized.expectNoMessage(Duration.ofMillis(200));
+                    assertThat(attempts.get()).isEqualTo(3);
+                    awaitQuarantined(actor, "poison");
+
+                    system.stop(actor);
+                });
+            });
+        });
+    }
+
+    static class PoisonTestActor extends TestActor {
+        private final ActorRef materialized;
+        private final AtomicBoolean failing;
+        private final AtomicInteger attempts;
+
+        public PoisonTestActor(Source<Envelope,NotUsed> events, ActorRef materialized, AtomicBoolean failing, AtomicInteger attempts) {
+            super(events, materialized);
+            this.materialized = materialized;
+            this.failing = failing;
+            this.attempts = attempts;
+        }
+
+        @Override
+        protected CompletionStage<Done> materialize(Envelope envelope) {
+            if (envelope.getEntityId().equals("poison") && failing.get()) {
+                attempts.incrementAndGet();
+                return CompletableFutures.failedFuture(new IllegalStateException("Simulated failure"));
+            }
+            return super.materialize(envelope);
+        }
+
+        @Override
+        protected CompletionStage<Done> quarantine(Envelope envelope, Throwable cause) {
+            materialized.tell("quarantined " + envelope.getIndex(), self());
+            return CompletableFuture.completedFuture(Done.getInstance());
+        }
+    }
+
+    /** Fails to store the envelopes that it's asked to quarantine */
+    static class FailingQuarantineTestActor extends PoisonTestActor {
+        public FailingQuarantineTestActor(Source<Envelope,NotUsed> events, ActorRef materialized, AtomicBoolean failing, AtomicInteger attempts) {
+            super(events, materialized, failing, attempts);
+        }
+
+        @Override
+        protected CompletionStage<Done> quarantine(Envelope envelope, Throwable cause) {
+            return super.quarantine(envelope, cause).thenCompose(done -> CompletableFutures.<Done>failedFuture(
+                new IllegalStateException("Simulated dead-letter store failure")));
+        }
+    }
+
+    /** Writes batches with poison events partially, materializing all other envelopes of the batch */
+    static class PartialBatchTestActor extends PoisonTestActor {
+        public PartialBatchTestActor(Source<Envelope,NotUsed> events, ActorRef materialized, AtomicBoolean failing, AtomicInteger attempts) {
+            super(events, materialized, failing, attempts);
+        }
+
+        @Override
+        protected CompletionStage<Done> materializeBatch(Seq<Envelope> envelopes) {
+            Seq<Envelope> healthy = envelopes.filter(e -> !e.getEntityId().equals("poison"));
+            CompletionStage<Done> written = CompletableFutures.<Done,Done>sequence(healthy.map(this::materialize))
+                .thenApply(seq -> Done.getInstance());
+            if (healthy.size() == envelopes.size()) {
+                return written;
+            }
+            return written.thenCompose(done -> CompletableFutures.<Done>failedFuture(
+                new PartialBatchFailure(healthy, new IllegalStateException("Simulated failure"))));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.tradeshift.reaktive.materialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.materialize.MaterializerActor.Progress;
+import com.tradeshift.reaktive.materialize.MaterializerActor.QueryProgress;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.Envelope;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.TestActor;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerActorSnapshot;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.ConfigFactory;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.persistence.Persistence;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SnapshotMetadata;
+import akka.persistence.SnapshotProtocol.LoadSnapshot;
+import akka.persistence.SnapshotProtocol.LoadSnapshotResult;
+import akka.persistence.SnapshotSelectionCriteria;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.collection.Stream;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class SnapshotMaterializerActorSpec extends SharedActorSystemSpec {
+    public SnapshotMaterializerActorSpec() {
+        super(ConfigFactory.parseString("ts-reaktive.actors.materializer.progress-store = snapshot-store"));
+    }
+
+    private TestKit materialized;
+
+    /** Waits until the latest snapshot of the given materializer has progressed beyond the given timestamp */
+    private void awaitSnapshotAfter(ActorRef actor, Instant timestamp) {
+        ActorRef snapshotStore = Persistence.get(system).snapshotStoreFor("", ConfigFactory.empty());
+        TestKit probe = new TestKit(system);
+        probe.awaitAssert(() -> {
+            probe.send(snapshotStore, new LoadSnapshot(actor.path().toString(), SnapshotSelectionCriteria.latest(), Long.MAX_VALUE));
+            LoadSnapshotResult result = probe.expectMsgClass(LoadSnapshotResult.class);
+            assertThat(result.snapshot().isDefined()).isTrue();
+            MaterializerActorSnapshot snapshot = (MaterializerActorSnapshot) result.snapshot().get().snapshot();
+            assertThat(snapshot.getWorkers().getWorker(0).getTimestamp()).isGreaterThan(timestamp.toEpochMilli());
+            return null;
+        });
+    }
+
+    private void awaitProgressAfter(ActorRef actor, Instant timestamp) {
+        TestKit probe = new TestKit(system);
+        probe.awaitAssert(() -> {
+            probe.send(actor, QueryProgress.instance);
+            Progress progress = probe.expectMsgClass(Progress.class);
+            assertThat(progress.getWorkers().head().getTimestamp()).isAfter(timestamp);
+            return null;
+        });
+    }
+
+    {
+        describe("MaterializerActor with progress-store = snapshot-store", () -> {
+            beforeEach(() -> {
+                materialized = new TestKit(system);
+            });
+
+            Vector<Envelope> events = Stream.range(0, 20).map(i ->
+                new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), "entity" + i, i)
+            ).toVector();
+
+            it("resumes from its snapshot without having written any events", () -> {
+                ActorRef actor = system.actorOf(Props.create(TestActor.class, () ->
+                    new TestActor(Source.from(events), materialized.getRef())), "snapshot-materializer");
+                materialized.receiveN(events.size());
+
+                awaitProgressAfter(actor, events.last().getTimestamp());
+                // Changes are coalesced into the next snapshot, so wait until that has been saved as well.
+                awaitSnapshotAfter(actor, events.last().getTimestamp());
+                TestKit probe = new TestKit(system);
+                probe.watch(actor);
+                system.stop(actor);
+                probe.expectTerminated(actor);
+
+                assertThat(journalEventsFor(actor.path().toString())).isEmpty();
+
+                ActorRef restarted = system.actorOf(Props.create(TestActor.class, () ->
+                    new TestActor(Source.from(events), materialized.getRef())), "snapshot-materializer");
+                materialized.expectNoMessage(Duration.ofMillis(500));
+
+                system.stop(restarted);
+            });
+
+            it("retries saving a snapshot that failed, even if nothing changes afterwards", () -> {
+                AtomicBoolean failing = new AtomicBoolean(true);
+                ActorRef actor = system.actorOf(Props.create(FailingSnapshotTestActor.class, () ->
+                    new FailingSnapshotTestActor(Source.from(events), materialized.getRef(), failing)));
+                materialized.receiveN(events.size());
+                awaitProgressAfter(actor, events.last().getTimestamp());
+
+                failing.set(false);
+                awaitSnapshotAfter(actor, events.last().getTimestamp());
+
+                system.stop(actor);
+            });
+        });
+    }
+
+    /** Fails to save snapshots while [failing] is set */
+    static class FailingSnapshotTestActor extends TestActor {
+        private final AtomicBoolean failing;
+
+        public FailingSnapshotTestActor(Source<Envelope,NotUsed> events, ActorRef materialized, AtomicBoolean failing) {
+            super(events, materialized);
+            this.failing = failing;
+        }
+
+        @Override
+        public void saveSnapshot(Object snapshot) {
+            if (failing.get()) {
+                self().tell(new SaveSnapshotFailure(new SnapshotMetadata(persistenceId(), lastSequenceNr(), 0),
+                    new IllegalStateException("Simulated failure")), self());
+            } else {
+                super.saveSnapshot(snapshot);
+            }
+        }
+    }
+}
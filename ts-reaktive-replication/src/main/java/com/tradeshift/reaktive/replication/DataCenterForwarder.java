@@ -2,7 +2,9 @@ package com.tradeshift.reaktive.replication;
 
 import static akka.pattern.PatternsCS.pipe;
 
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.datastax.driver.core.utils.UUIDs;
 
@@ -79,6 +81,7 @@ public class DataCenterForwarder<E> extends AbstractActor {
     private final int parallelism;
     private final String localDataCenterName;
     private final EventsByTagQuery eventsByTagQuery;
+    private final ReplayScheduler replays;
     
     private long updatingVisibilityOffset = 0;
     private int updatingVisibilityOffsetCount = 0;
@@ -110,6 +113,7 @@ public class DataCenterForwarder<E> extends AbstractActor {
         this.localDataCenterName = replication.getLocalDataCenterName();
         this.currentEventsByPersistenceIdQuery = currentEventsByPersistenceIdQuery;
         this.parallelism = context().system().settings().config().getInt("ts-reaktive.replication.parallellism");
+        this.replays = new ReplayScheduler(context().system().settings().config().getInt("ts-reaktive.replication.max-concurrent-replays"), this::replay);
 
         pipe(visibilityRepo.getLastEventOffset(dataCenter, tag).thenApply(LastEventOffsetKnown::new), context().dispatcher()).to(self());
         log.debug("Started");
@@ -228,21 +232,29 @@ public class DataCenterForwarder<E> extends AbstractActor {
                     return e;
                 })
             )
-            .mapAsyncUnordered(parallelism, e -> {
-                // TODO (optimization) don't (or queue) replay when a current replay already is in progress.
-                // The above probably should be done at the same time as having clustered (non-persistent) actors per persistenceId.
-                // Currently, subsequent events for the same persistenceId will trigger lots of "WARN: Received duplicate event" in ReplicatedActor.
-                log.info("{} Replaying persistence ID {} into {}", self(), e.persistenceId(), dataCenter.getName());
-                return currentEventsByPersistenceIdQuery.currentEventsByPersistenceId(e.persistenceId(), 0, Long.MAX_VALUE)
-                                .alsoTo(stopOnError("currentEventsByPersistenceId"))
-                                .via(dataCenter.uploadFlow())
-                                .runWith(Sink.ignore(), materializer)
-                                .thenApply(done -> e);
-            })
+            .mapAsyncUnordered(parallelism, e -> replays.schedule(e.persistenceId()).thenApply(done -> e))
             .alsoTo(stopOnError("updateVisibility"))
             .to(Sink.foreach(event -> self.tell(new VisibilityUpdated(getTimestamp(event)), self)));
     }
     
+    /**
+     * Replays the events of the given persistenceId into the data center, starting at the given sequence number,
+     * returning the sequence number of the last replayed event.
+     */
+    private CompletionStage<Long> replay(String persistenceId, long fromSequenceNr) {
+        log.info("Replaying persistence ID {} from {} into {}", persistenceId, fromSequenceNr, dataCenter.getName());
+        AtomicLong last = new AtomicLong(fromSequenceNr - 1);
+        return currentEventsByPersistenceIdQuery.currentEventsByPersistenceId(persistenceId, fromSequenceNr, Long.MAX_VALUE)
+            .alsoTo(stopOnError("currentEventsByPersistenceId"))
+            .map(e -> {
+                last.set(e.sequenceNr());
+                return e;
+            })
+            .via(dataCenter.uploadFlow())
+            .runWith(Sink.ignore(), materializer)
+            .thenApply(done -> last.get());
+    }
+    
     private static long getTimestamp(EventEnvelope e) {
         return UUIDs.unixTimestamp(TimeBasedUUID.class.cast(e.offset()).value());
     }
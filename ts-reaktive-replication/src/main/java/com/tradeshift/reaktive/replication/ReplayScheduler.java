@@ -0,0 +1,136 @@
+package com.tradeshift.reaktive.replication;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiFunction;
+
+import akka.Done;
+
+/**
+ * Schedules replays of persistenceIds into a data center, running at most one replay per persistenceId, and
+ * at most [maxConcurrent] replays in total.
+ *
+ * Replays that are requested while one is already running for the same persistenceId are coalesced into a single
+ * catch-up replay, which continues after the last sequence number of the running replay. Replays that are
+ * requested while one is still waiting to start are simply included in that one.
+ */
+class ReplayScheduler {
+    private final int maxConcurrent;
+    private final BiFunction<String,Long,CompletionStage<Long>> replay;
+    private final Map<String,Replay> replays = new HashMap<>();
+    private final Queue<Replay> waiting = new ArrayDeque<>();
+    private int running = 0;
+
+    private static class Replay {
+        private final String persistenceId;
+        private long fromSequenceNr = 0;
+        private boolean started = false;
+        /** Completed when the running (or waiting) replay is done */
+        private CompletableFuture<Done> current = new CompletableFuture<>();
+        /** Completed when the catch-up replay, which was requested while [current] was running, is done */
+        private CompletableFuture<Done> next = null;
+
+        public Replay(String persistenceId) {
+            this.persistenceId = persistenceId;
+        }
+    }
+
+    /**
+     * Creates a new ReplayScheduler
+     * @param maxConcurrent Maximum number of replays to run at the same time
+     * @param replay Function that replays the given persistenceId starting at the given sequence number, returning
+     *        the sequence number of the last replayed event.
+     */
+    public ReplayScheduler(int maxConcurrent, BiFunction<String,Long,CompletionStage<Long>> replay) {
+        this.maxConcurrent = maxConcurrent;
+        this.replay = replay;
+    }
+
+    /**
+     * Schedules a replay of the given persistenceId, returning a future that completes when all events of the
+     * persistenceId, at least up to when this method was invoked, have been replayed.
+     */
+    public CompletionStage<Done> schedule(String persistenceId) {
+        Replay r;
+        CompletionStage<Done> result;
+        synchronized (this) {
+            r = replays.get(persistenceId);
+            if (r == null) {
+                r = new Replay(persistenceId);
+                replays.put(persistenceId, r);
+                waiting.add(r);
+                result = r.current;
+            } else if (!r.started) {
+                return r.current;
+            } else {
+                if (r.next == null) {
+                    r.next = new CompletableFuture<>();
+                }
+                return r.next;
+            }
+        }
+        startWaiting();
+        return result;
+    }
+
+    /**
+     * Returns the number of persistenceIds that currently have a replay running, or waiting to run.
+     */
+    public synchronized int size() {
+        return replays.size();
+    }
+
+    private void startWaiting() {
+        while (true) {
+            Replay r;
+            long from;
+            synchronized (this) {
+                if (running >= maxConcurrent || waiting.isEmpty()) {
+                    return;
+                }
+                r = waiting.remove();
+                r.started = true;
+                from = r.fromSequenceNr;
+                running++;
+            }
+            CompletionStage<Long> result;
+            try {
+                result = replay.apply(r.persistenceId, from);
+            } catch (RuntimeException x) {
+                CompletableFuture<Long> failed = new CompletableFuture<>();
+                failed.completeExceptionally(x);
+                result = failed;
+            }
+            result.whenComplete((last, x) -> finished(r, last, x));
+        }
+    }
+
+    private void finished(Replay r, Long lastSequenceNr, Throwable failure) {
+        CompletableFuture<Done> done;
+        synchronized (this) {
+            running--;
+            done = r.current;
+            if (failure == null) {
+                r.fromSequenceNr = Math.max(r.fromSequenceNr, lastSequenceNr + 1);
+            }
+            if (r.next != null) {
+                r.current = r.next;
+                r.next = null;
+                r.started = false;
+                waiting.add(r);
+            } else {
+                replays.remove(r.persistenceId);
+            }
+        }
+        if (failure == null) {
+            done.complete(Done.getInstance());
+        } else {
+            done.completeExceptionally(failure);
+        }
+        startWaiting();
+    }
+}
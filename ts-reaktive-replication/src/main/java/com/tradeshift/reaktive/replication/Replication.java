@@ -101,7 +101,7 @@ public class Replication implements Extension {
         ActorMaterializer materializer = SharedActorMaterializer.get(system);
         
         VisibilityCassandraSession session = new VisibilityCassandraSession(system, "visibilitySession");
-        VisibilityRepository visibilityRepo = new VisibilityRepository(session);
+        VisibilityRepository visibilityRepo = new VisibilityRepository(session, config.getConfig("visibility-cache"));
         
         // We consider ourselves started when the HTTP binding succeeds, and we've successfully connected to cassandra.
         // The below client flows just start some child actors, so there's nothing to wait on.
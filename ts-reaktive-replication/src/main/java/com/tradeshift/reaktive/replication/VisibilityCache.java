@@ -0,0 +1,111 @@
+package com.tradeshift.reaktive.replication;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import kamon.Kamon;
+import kamon.metric.Counter;
+
+/**
+ * A size-bounded cache of {@link Visibility} lookups, evicting the least recently used persistenceId when full,
+ * and expiring entries [timeToLive] after they were loaded.
+ *
+ * The pending lookup itself is cached, so concurrent lookups of the same persistenceId only query once. Since
+ * visibility only ever grows, writes are applied to the cached (possibly still pending) lookup rather than
+ * invalidating it, which keeps the entry correct even if its query raced with the write.
+ *
+ * Writes made by other nodes are only seen once the entry expires.
+ */
+class VisibilityCache {
+    private static class Entry {
+        private final CompletionStage<Visibility> visibility;
+        private final long expires;
+
+        public Entry(CompletionStage<Visibility> visibility, long expires) {
+            this.visibility = visibility;
+            this.expires = expires;
+        }
+    }
+
+    private final int maxSize;
+    private final long timeToLive;
+    private final LongSupplier nanoTime;
+    private final LinkedHashMap<String,Entry> entries;
+    private final Counter hits = Kamon.counter("replication.visibility-cache-hits");
+    private final Counter misses = Kamon.counter("replication.visibility-cache-misses");
+
+    /**
+     * Creates a new VisibilityCache
+     * @param maxSize Maximum number of persistenceIds to cache. If 0, nothing is cached.
+     * @param timeToLive Time after which a cached visibility is looked up again
+     */
+    public VisibilityCache(int maxSize, Duration timeToLive) {
+        this(maxSize, timeToLive, System::nanoTime);
+    }
+
+    VisibilityCache(int maxSize, Duration timeToLive, LongSupplier nanoTime) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive.toNanos();
+        this.nanoTime = nanoTime;
+        this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<String, Entry> eldest) {
+                return size() > VisibilityCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached visibility of the given persistenceId, invoking [load] to look it up if it's not cached
+     * (or has expired). Failed lookups are not cached.
+     */
+    public synchronized CompletionStage<Visibility> get(String persistenceId, Supplier<CompletionStage<Visibility>> load) {
+        if (maxSize <= 0) {
+            return load.get();
+        }
+
+        Entry entry = entries.get(persistenceId);
+        if (entry != null && entry.expires - nanoTime.getAsLong() > 0) {
+            hits.increment();
+            return entry.visibility;
+        }
+        misses.increment();
+        return put(persistenceId, load.get(), nanoTime.getAsLong() + timeToLive);
+    }
+
+    /**
+     * Applies a visibility change, which has been written for the given persistenceId, to its cached entry (if any).
+     */
+    public synchronized void update(String persistenceId, Function<Visibility,Visibility> change) {
+        Entry entry = entries.get(persistenceId);
+        if (entry != null) {
+            put(persistenceId, entry.visibility.thenApply(change), entry.expires);
+        }
+    }
+
+    private synchronized CompletionStage<Visibility> put(String persistenceId, CompletionStage<Visibility> visibility, long expires) {
+        Entry entry = new Entry(visibility, expires);
+        entries.put(persistenceId, entry);
+        visibility.whenComplete((v, x) -> {
+            if (x != null) {
+                synchronized (this) {
+                    entries.remove(persistenceId, entry);
+                }
+            }
+        });
+        return visibility;
+    }
+
+    /**
+     * Returns the number of persistenceIds currently cached (including expired entries that haven't been evicted yet)
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
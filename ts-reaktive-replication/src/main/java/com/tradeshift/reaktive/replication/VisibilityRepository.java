@@ -1,9 +1,11 @@
 package com.tradeshift.reaktive.replication;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.concurrent.CompletionStage;
 
 import com.datastax.driver.core.PreparedStatement;
+import com.typesafe.config.Config;
 
 import akka.Done;
 import io.vavr.collection.HashSet;
@@ -11,7 +13,9 @@ import io.vavr.collection.HashSet;
 /**
  * Stores which persistenceIds should be visible in other data centers (in addition to the current one)
  * 
- * TODO add some caching to this class, but only considering that the thing may be clustered later.
+ * Visibility lookups are cached according to ts-reaktive.replication.visibility-cache, and writes through this
+ * repository update the cache. Writes from other nodes (e.g. after a DataCenterForwarder singleton has moved)
+ * are only seen after the cached entry expires.
  */
 public class VisibilityRepository {
     private final VisibilityCassandraSession session;
@@ -20,9 +24,26 @@ public class VisibilityRepository {
     private final CompletionStage<PreparedStatement> getVisibilityStmt;
     private final CompletionStage<PreparedStatement> addVisibilityStmt;
     private final CompletionStage<PreparedStatement> setMasterStmt;
+    private final VisibilityCache cache;
     
+    /**
+     * Creates a VisibilityRepository that doesn't cache visibility lookups.
+     */
     public VisibilityRepository(VisibilityCassandraSession session) {
+        this(session, new VisibilityCache(0, Duration.ZERO));
+    }
+    
+    /**
+     * Creates a VisibilityRepository that caches visibility lookups according to the given [config], 
+     * i.e. ts-reaktive.replication.visibility-cache
+     */
+    public VisibilityRepository(VisibilityCassandraSession session, Config config) {
+        this(session, new VisibilityCache(config.getInt("max-size"), config.getDuration("time-to-live")));
+    }
+    
+    private VisibilityRepository(VisibilityCassandraSession session, VisibilityCache cache) {
         this.session = session;
+        this.cache = cache;
         String ks = session.getKeyspace();
         
         getEventOffsetStmt = session.prepare("SELECT lastEventOffset FROM " + ks + ".meta WHERE datacenter = ? AND tag = ?");
@@ -55,6 +76,10 @@ public class VisibilityRepository {
      * Returns the data center names to which the given persistenceId is currently visible
      */
     public CompletionStage<Visibility> getVisibility(String persistenceId) {
+        return cache.get(persistenceId, () -> loadVisibility(persistenceId));
+    }
+    
+    private CompletionStage<Visibility> loadVisibility(String persistenceId) {
         return getVisibilityStmt
             .thenCompose(stmt -> session.selectOne(stmt.bind(persistenceId)))
             .thenApply(opt ->
@@ -66,11 +91,19 @@ public class VisibilityRepository {
 
     public CompletionStage<Done> makeVisibleTo(DataCenter target, String persistenceId) {
         return addVisibilityStmt
-            .thenCompose(stmt -> session.executeWrite(stmt.bind(Collections.singleton(target.getName()), persistenceId)));
+            .thenCompose(stmt -> session.executeWrite(stmt.bind(Collections.singleton(target.getName()), persistenceId)))
+            .thenApply(done -> {
+                cache.update(persistenceId, v -> v.add(target.getName()));
+                return done;
+            });
     }
     
     public CompletionStage<Done> setMaster(String persistenceId, boolean master) {
         return setMasterStmt
-            .thenCompose(stmt -> session.executeWrite(stmt.bind(master, persistenceId)));
+            .thenCompose(stmt -> session.executeWrite(stmt.bind(master, persistenceId)))
+            .thenApply(done -> {
+                cache.update(persistenceId, v -> v.withMaster(master));
+                return done;
+            });
     }
 }
@@ -2,6 +2,7 @@ package com.tradeshift.reaktive.replication.actors;
 
 import java.io.Serializable;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import com.tradeshift.reaktive.actors.CommandHandler;
 import com.tradeshift.reaktive.actors.AbstractState;
@@ -11,11 +12,21 @@ import com.tradeshift.reaktive.replication.EventClassifier;
 import com.tradeshift.reaktive.replication.Replication;
 import com.tradeshift.reaktive.replication.ReplicationId;
 
+import akka.actor.ActorRef;
 import akka.actor.Status.Failure;
 import akka.japi.pf.ReceiveBuilder;
 import akka.persistence.RecoveryCompleted;
 import akka.serialization.SerializationExtension;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Seq;
+import io.vavr.collection.TreeMap;
+import io.vavr.collection.Vector;
 import io.vavr.control.Option;
+import kamon.Kamon;
+import kamon.metric.Counter;
+import kamon.metric.Histogram;
 import static io.vavr.control.Option.none;
 import static io.vavr.control.Option.some;
 
@@ -37,6 +48,9 @@ import static io.vavr.control.Option.some;
  * implement the {@link #createMigrationEvent()} method to have them "pin" themselves to the current datacenter. In addition,
  * you may want to run a persistence query to start/stop all existing persistenceIDs so that they all emit their
  * migration events.
+ * 
+ * A slave that receives events ahead of its own sequence number keeps them in a reorder buffer, of at most
+ * ts-reaktive.replication.reorder-buffer-size events, until the missing events have arrived.
  */
 public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends AbstractStatefulPersistentActor<C,E,S> {
     /**
@@ -46,15 +60,37 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
 
     private final Replication replication = ReplicationId.INSTANCE.get(context().system());
     private final Receive receiveRecover;
+    private final int reorderBufferSize = context().system().settings().config().getInt("ts-reaktive.replication.reorder-buffer-size");
+    
+    /** Events received ahead of lastSequenceNr()+1, by sequence number, with the actors to reply to once persisted */
+    private TreeMap<Long,Tuple2<Query.EventEnvelope,Seq<ActorRef>>> reorderBuffer = TreeMap.empty();
+    /** The number of missing events between lastSequenceNr() and each event that arrives ahead of it */
+    private Histogram reorderGap;
+    /** The number of events in the reorder buffer, each time it changes */
+    private Histogram reorderBufferOccupancy;
+    /** The number of events that have been rejected because the reorder buffer was full */
+    private Counter reorderBufferOverflows;
 
     public ReplicatedActor(Class<C> commandType, Class<E> eventType, CommandHandler<C, E, S> handler) {
         super(commandType, eventType, handler);
+        this.receiveRecover = replicatedReceiveRecover();
+    }
 
+    /**
+     * Creates the actor with handlers that are shared by all instances of this actor class. The supplier is only
+     * invoked for the first instance.
+     */
+    public ReplicatedActor(Class<C> commandType, Class<E> eventType, Supplier<CommandHandler<C, E, S>> handler) {
+        super(commandType, eventType, handler);
+        this.receiveRecover = replicatedReceiveRecover();
+    }
+
+    private Receive replicatedReceiveRecover() {
         Receive invokeSuper = super.createReceiveRecover();
         AtomicReference<Option<Boolean>> slave = new AtomicReference<>(none());
 
-        this.receiveRecover = ReceiveBuilder.create()
-            .match(eventType, e -> slave.get().isEmpty() && !classifier().getDataCenterNames(e).isEmpty(), e -> {
+        return ReceiveBuilder.create()
+            .match(getEventType(), e -> slave.get().isEmpty() && !classifier().getDataCenterNames(e).isEmpty(), e -> {
                 slave.set(some(!includesLocalDataCenter(e)));
                 invokeSuper.onMessage().apply(e);
             })
@@ -76,8 +112,27 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
             .orElse(invokeSuper);
     }
     
+    /**
+     * A replicated actor finds out whether it's master or slave from the first events in its journal, which recovering
+     * from a snapshot would skip. Hence, replicated actors never save a snapshot after a number of events, regardless
+     * of ts-reaktive.actors.snapshot.every-events.
+     */
+    @Override
+    protected final int getSnapshotEveryEvents() {
+        return 0;
+    }
+
+    /**
+     * Replicated actors don't save periodic snapshots either, regardless of ts-reaktive.actors.snapshot.every-interval,
+     * for the same reason as {@link #getSnapshotEveryEvents()}.
+     */
+    @Override
+    protected final java.time.Duration getSnapshotInterval() {
+        return java.time.Duration.ZERO;
+    }
+
     protected EventClassifier<E> classifier() {
-        return replication.getEventClassifier(eventType);
+        return replication.getEventClassifier(getEventType());
     }
 
     @Override
@@ -145,11 +200,11 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
         Receive receive = createReceive();
 
         return ReceiveBuilder.create()
-            .match(commandType, c -> isReadOnly(c), c -> {
+            .match(getCommandType(), c -> isReadOnly(c), c -> {
                 log.debug("Received erroneous read-only command as first: {}", c);
                 sender().tell(getActorNotFoundReply(c), self());
             })
-            .match(commandType, c -> {
+            .match(getCommandType(), c -> {
                 log.debug("Received write command as first, becoming master: {}", c);
                 getContext().become(master());
                 if (receive.onMessage().isDefinedAt(c)) {
@@ -185,7 +240,7 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
             .match(Query.EventEnvelope.class, e -> {
                 receiveEnvelope(e);
             })
-            .match(commandType, c -> !isReadOnly(c), c ->
+            .match(getCommandType(), c -> !isReadOnly(c), c ->
                 sender().tell(new Failure(new IllegalStateException("Actor is in slave mode and does not accept non-readOnly command " + c)), self())
             )
             .build()
@@ -193,26 +248,75 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
     }
     
     protected void receiveEnvelope(Query.EventEnvelope envelope) {
+        receiveEnvelope(envelope, Vector.of(sender()));
+    }
+    
+    private void receiveEnvelope(Query.EventEnvelope envelope, Seq<ActorRef> replyTo) {
         if (envelope.getSequenceNr() > lastSequenceNr() + 1) {
-            // TODO: park this in a cassandra table and piece it together later.
-            log.warning("Received sequence nr {}, but only at {} myself. Stashing and waiting for the rest.", envelope.getSequenceNr(), lastSequenceNr());
-            stash();
+            log.debug("Received sequence nr {}, but only at {} myself. Buffering and waiting for the rest.", envelope.getSequenceNr(), lastSequenceNr());
+            bufferEnvelope(envelope, replyTo);
         } else if (envelope.getSequenceNr() <= lastSequenceNr()) {
             log.warning("Received duplicate event {} while already at {}. Assuming idempotent.", envelope.getSequenceNr(), lastSequenceNr());
             // TODO actually check that the event is idempotent with what we already have in the journal
-            sender().tell(envelope.getTimestamp(), self());
+            replyTo.forEach(r -> r.tell(envelope.getTimestamp(), self()));
         } else if (!envelope.getPersistenceId().equals(persistenceId())) {
             throw new IllegalStateException("Received event envelope for a different actor: " + envelope.getPersistenceId());
         } else {
             log.debug("Saving event nr {}, I'm at {}", envelope.getSequenceNr(), lastSequenceNr());
-            E event = SerializationExtension.get(context().system()).deserialize(envelope.getEvent().toByteArray(), eventType).get();
+            E event = SerializationExtension.get(context().system()).deserialize(envelope.getEvent().toByteArray(), getEventType()).get();
             persistEvent(event, e -> {
-                sender().tell(envelope.getTimestamp(), self());
-                unstashAll();
+                replyTo.forEach(r -> r.tell(envelope.getTimestamp(), self()));
+                drainReorderBuffer();
             });
         }
     }
     
+    /**
+     * Keeps an event that arrived ahead of lastSequenceNr()+1 until the missing events have arrived. If the buffer
+     * is full, the event furthest ahead is failed instead, so that the sending data center will deliver it again later.
+     */
+    private void bufferEnvelope(Query.EventEnvelope envelope, Seq<ActorRef> replyTo) {
+        initReorderMetrics();
+        reorderGap.record(envelope.getSequenceNr() - lastSequenceNr() - 1);
+        reorderBuffer = reorderBuffer.put(envelope.getSequenceNr(),
+            reorderBuffer.get(envelope.getSequenceNr()).map(t -> t.map2(r -> r.appendAll(replyTo))).getOrElse(Tuple.of(envelope, replyTo)));
+        
+        if (reorderBuffer.size() > reorderBufferSize) {
+            Tuple2<Long,Tuple2<Query.EventEnvelope,Seq<ActorRef>>> rejected = reorderBuffer.last();
+            reorderBuffer = reorderBuffer.init();
+            reorderBufferOverflows.increment();
+            log.warning("Reorder buffer is full at {} events, while at {} myself. Rejecting sequence nr {}.", reorderBufferSize, lastSequenceNr(), rejected._1);
+            rejected._2._2.forEach(r -> r.tell(new Failure(new IllegalStateException(
+                "Reorder buffer of " + persistenceId() + " is full, rejecting sequence nr " + rejected._1)), self()));
+        }
+        reorderBufferOccupancy.record(reorderBuffer.size());
+    }
+    
+    /**
+     * Applies the buffered events that have become next in line, until one of them needs to be persisted.
+     */
+    private void drainReorderBuffer() {
+        while (!reorderBuffer.isEmpty() && reorderBuffer.head()._1 <= lastSequenceNr() + 1) {
+            Tuple2<Long,Tuple2<Query.EventEnvelope,Seq<ActorRef>>> next = reorderBuffer.head();
+            reorderBuffer = reorderBuffer.tail();
+            reorderBufferOccupancy.record(reorderBuffer.size());
+            boolean persisting = next._1 == lastSequenceNr() + 1;
+            receiveEnvelope(next._2._1, next._2._2);
+            if (persisting) {
+                return;
+            }
+        }
+    }
+    
+    private void initReorderMetrics() {
+        if (reorderGap == null) {
+            java.util.Map<String,String> tags = HashMap.of("event-type", getEventType().getSimpleName()).toJavaMap();
+            reorderGap = Kamon.histogram("replication.reorder-gap").refine(tags);
+            reorderBufferOccupancy = Kamon.histogram("replication.reorder-buffer-occupancy").refine(tags);
+            reorderBufferOverflows = Kamon.counter("replication.reorder-buffer-overflows").refine(tags);
+        }
+    }
+    
     @Override
     protected void validateFirstEvent(E e) {
         if (!includesLocalDataCenter(e)) {
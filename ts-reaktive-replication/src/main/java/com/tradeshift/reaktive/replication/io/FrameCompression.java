@@ -0,0 +1,121 @@
+package com.tradeshift.reaktive.replication.io;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import io.vavr.collection.Map;
+import kamon.Kamon;
+import kamon.metric.Counter;
+import kamon.metric.Histogram;
+import kamon.metric.MeasurementUnit;
+
+/**
+ * Deflate compression of the web socket frames of a single replication connection. The compression dictionary is
+ * kept for the whole connection, so repetitive content (e.g. persistence ids and event types) compresses well across
+ * frames, while each frame is flushed so that it can be decompressed as soon as it arrives.
+ *
+ * Instances are not thread-safe, and must see the frames of their connection in order. They hold native memory, so
+ * they must be ended once their connection's stream has terminated.
+ */
+final class FrameCompression {
+    /** The value of the compression header for deflate */
+    public static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Metrics for compressing or decompressing frames, tagged with the given tags */
+    static final class Metrics {
+        private final Counter uncompressedBytes;
+        private final Counter compressedBytes;
+        private final Histogram ratio;
+        private final Histogram duration;
+
+        public Metrics(Map<String, String> tags) {
+            java.util.Map<String, String> t = tags.toJavaMap();
+            this.uncompressedBytes = Kamon.counter("replication.uncompressed-bytes", MeasurementUnit.information().bytes()).refine(t);
+            this.compressedBytes = Kamon.counter("replication.compressed-bytes", MeasurementUnit.information().bytes()).refine(t);
+            this.ratio = Kamon.histogram("replication.compression-ratio", MeasurementUnit.percentage()).refine(t);
+            this.duration = Kamon.histogram("replication.compression-duration", MeasurementUnit.time().nanoseconds()).refine(t);
+        }
+
+        private void record(int uncompressed, int compressed, long nanos) {
+            uncompressedBytes.increment(uncompressed);
+            compressedBytes.increment(compressed);
+            if (uncompressed > 0) {
+                ratio.record(compressed * 100L / uncompressed);
+            }
+            duration.record(nanos);
+        }
+    }
+
+    /** Compresses the frames sent over a connection */
+    static final class Compressor {
+        private final Deflater deflater;
+        private final Metrics metrics;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        public Compressor(int level, Metrics metrics) {
+            this.deflater = new Deflater(level, true);
+            this.metrics = metrics;
+        }
+
+        public ByteString compress(ByteString frame) {
+            long start = System.nanoTime();
+            deflater.setInput(frame.toArray());
+            ByteStringBuilder out = new ByteStringBuilder();
+            int n;
+            do {
+                n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.putBytes(buffer, 0, n);
+            } while (n == buffer.length);
+            ByteString result = out.result();
+            metrics.record(frame.size(), result.size(), System.nanoTime() - start);
+            return result;
+        }
+
+        /** Releases the native memory of the compressor. It can't be used afterwards. */
+        public void end() {
+            deflater.end();
+        }
+    }
+
+    /** Decompresses the frames received over a connection */
+    static final class Decompressor {
+        private final Inflater inflater = new Inflater(true);
+        private final Metrics metrics;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        public Decompressor(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public ByteString decompress(ByteString frame) throws DataFormatException {
+            long start = System.nanoTime();
+            inflater.setInput(frame.toArray());
+            ByteStringBuilder out = new ByteStringBuilder();
+            while (true) {
+                int n = inflater.inflate(buffer);
+                if (n > 0) {
+                    out.putBytes(buffer, 0, n);
+                } else if (inflater.needsInput()) {
+                    break;
+                } else {
+                    throw new DataFormatException("Unexpected end of compressed replication stream");
+                }
+            }
+            ByteString result = out.result();
+            metrics.record(result.size(), frame.size(), System.nanoTime() - start);
+            return result;
+        }
+
+        /** Releases the native memory of the decompressor. It can't be used afterwards. */
+        public void end() {
+            inflater.end();
+        }
+    }
+
+    private FrameCompression() {}
+}
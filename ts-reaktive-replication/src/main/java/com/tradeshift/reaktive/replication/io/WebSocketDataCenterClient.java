@@ -1,29 +1,51 @@
 package com.tradeshift.reaktive.replication.io;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventEnvelopeBatch;
 import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventsPersisted;
 import com.tradeshift.reaktive.akka.rest.EventMarshallers;
 import com.tradeshift.reaktive.protobuf.Query;
 import com.tradeshift.reaktive.replication.DataCenter;
+import com.typesafe.config.Config;
 
 import akka.actor.ActorSystem;
 import akka.http.javadsl.ConnectionContext;
 import akka.http.javadsl.Http;
+import akka.http.javadsl.model.headers.RawHeader;
 import akka.http.javadsl.model.ws.BinaryMessage;
 import akka.http.javadsl.model.ws.Message;
 import akka.http.javadsl.model.ws.WebSocketRequest;
+import akka.http.javadsl.model.ws.WebSocketUpgradeResponse;
 import akka.http.javadsl.settings.ClientConnectionSettings;
 import akka.persistence.query.EventEnvelope;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
 import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
 
 /**
  * A client that can stream events into a datacenter that has exposed its event receiving API using WebSocketDataCenterServer.
+ *
+ * If ts-reaktive.replication.client.batch is enabled, the client asks for {@link WebSocketDataCenterServer#BATCH_PROTOCOL}
+ * when connecting, and sends several events per web socket frame if the server agrees. Otherwise (e.g. for a server
+ * running an older version), one event is sent per frame. Batch frames are also compressed, if
+ * ts-reaktive.replication.client.batch.compression is set and the server agrees. Either way, events are serialized
+ * using {@link #serialize(EventEnvelope)}.
  */
 public class WebSocketDataCenterClient implements DataCenter {
     private static final Logger log = LoggerFactory.getLogger(WebSocketDataCenterClient.class);
@@ -33,6 +55,12 @@ public class WebSocketDataCenterClient implements DataCenter {
     private final ConnectionContext connectionContext;
     private final String name;
     private Function<EventEnvelope, Query.EventEnvelope> serializer;
+    private final boolean batchEnabled;
+    private final int batchMaxBytes;
+    private final Duration batchMaxDelay;
+    private final Option<String> compression;
+    private final int compressionLevel;
+    private final FrameCompression.Metrics compressionMetrics;
     
     /**
      * Creates a new WebSocketDataCenterClient
@@ -46,6 +74,21 @@ public class WebSocketDataCenterClient implements DataCenter {
         this.name = name;
         this.uri = uri;
         this.serializer = EventMarshallers.getAkkaSerializer(system);
+        Config batch = system.settings().config().getConfig("ts-reaktive.replication.client.batch");
+        this.batchEnabled = batch.getBoolean("enabled");
+        this.batchMaxBytes = (int) Math.min(Integer.MAX_VALUE, batch.getBytes("max-bytes"));
+        this.batchMaxDelay = batch.getDuration("max-delay");
+        this.compression = parseCompression(batch.getString("compression"));
+        this.compressionLevel = batch.getInt("compression-level");
+        this.compressionMetrics = new FrameCompression.Metrics(HashMap.of("data-center", name, "side", "client"));
+    }
+
+    private static Option<String> parseCompression(String compression) {
+        switch (compression) {
+            case "none": return Option.none();
+            case FrameCompression.DEFLATE: return Option.some(compression);
+            default: throw new IllegalArgumentException("Unknown replication compression: " + compression);
+        }
     }
 
     @Override
@@ -53,25 +96,105 @@ public class WebSocketDataCenterClient implements DataCenter {
         return name;
     }
     
+    /**
+     * Returns a flow that uploads events to the remote datacenter over a new web socket connection, each time it's
+     * materialized.
+     */
     @Override
     public Flow<EventEnvelope,Long,?> uploadFlow() {
         ClientConnectionSettings settings = ClientConnectionSettings.create(system.settings().config());
         
+        if (!batchEnabled) {
+            return Flow.<EventEnvelope>create()
+                .map(e -> (Message) BinaryMessage.create(serialize(e)))
+                .via(Http.get(system).webSocketClientFlow(WebSocketRequest.create(uri), connectionContext, Optional.empty(), settings, system.log()))
+                .map(this::parseEventsPersisted)
+                .filter(l -> l > 0);
+        }
+        
+        // Completed with how to encode events, according to what the server agreed to in the web socket handshake.
+        CompletableFuture<Function<List<ByteString>,List<Message>>> encoder = new CompletableFuture<>();
+        // Completed with the compressor that [encoder] uses, if any, which is ended once encoding has stopped.
+        CompletableFuture<FrameCompression.Compressor> compressor = new CompletableFuture<>();
+        WebSocketRequest request = WebSocketRequest.create(uri)
+            .addHeader(RawHeader.create(WebSocketDataCenterServer.PROTOCOL_HEADER, WebSocketDataCenterServer.BATCH_PROTOCOL));
+        for (String c: compression) {
+            request = request.addHeader(RawHeader.create(WebSocketDataCenterServer.COMPRESSION_HEADER, c));
+        }
+        
         return Flow.<EventEnvelope>create()
-            .map(e -> (Message) BinaryMessage.create(serialize(e)))
-            .via(Http.get(system).webSocketClientFlow(WebSocketRequest.create(uri), connectionContext, Optional.empty(), settings, system.log()))
-            .map(msg -> {
-                if (msg.isText()) {
-                    log.warn("Ignoring unexpected text-type WS message {}", msg);
-                    return 0l;
-                } else {
-                    EventsPersisted applied = EventsPersisted.parseFrom(
-                        msg.asBinaryMessage().getStrictData().iterator().asInputStream());
-                    return applied.hasOffset() ? applied.getOffset() : 0l;
-                }})
+            .map(this::serialize)
+            .groupedWeightedWithin(batchMaxBytes, e -> (long) e.size(), batchMaxDelay)
+            .mapAsync(1, events -> encoder.thenApply(f -> f.apply(events)))
+            .mapConcat(messages -> messages)
+            .watchTermination((mat, done) -> {
+                done.whenComplete((d, x) -> compressor.thenAccept(FrameCompression.Compressor::end));
+                return mat;
+            })
+            .viaMat(Http.get(system).webSocketClientFlow(request, connectionContext, Optional.empty(), settings, system.log())
+                .mapMaterializedValue(upgrade -> upgrade.whenComplete((response, failure) -> {
+                    boolean isBatched = failure == null && hasHeader(response, WebSocketDataCenterServer.PROTOCOL_HEADER, WebSocketDataCenterServer.BATCH_PROTOCOL);
+                    boolean isDeflated = isBatched && hasHeader(response, WebSocketDataCenterServer.COMPRESSION_HEADER, FrameCompression.DEFLATE);
+                    log.debug("Connected to {}, batch protocol: {}, compressed: {}", uri, isBatched, isDeflated);
+                    if (isDeflated) {
+                        // Only created once connected, since it must only see the frames of this connection.
+                        FrameCompression.Compressor created = new FrameCompression.Compressor(compressionLevel, compressionMetrics);
+                        compressor.complete(created);
+                        encoder.complete(events -> Collections.singletonList(BinaryMessage.create(created.compress(toBatch(events)))));
+                    } else if (isBatched) {
+                        encoder.complete(events -> Collections.singletonList(BinaryMessage.create(toBatch(events))));
+                    } else {
+                        encoder.complete(WebSocketDataCenterClient::toMessages);
+                    }
+                })), Keep.right())
+            .map(this::parseEventsPersisted)
             .filter(l -> l > 0);
     }
+    
+    private long parseEventsPersisted(Message msg) throws Exception {
+        if (msg.isText()) {
+            log.warn("Ignoring unexpected text-type WS message {}", msg);
+            return 0l;
+        } else {
+            EventsPersisted applied = EventsPersisted.parseFrom(
+                msg.asBinaryMessage().getStrictData().iterator().asInputStream());
+            return applied.hasOffset() ? applied.getOffset() : 0l;
+        }
+    }
+    
+    private static boolean hasHeader(WebSocketUpgradeResponse response, String name, String value) {
+        return response.response().getHeader(name).filter(h -> h.value().equals(value)).isPresent();
+    }
+    
+    /**
+     * Returns an EventEnvelopeBatch of the given serialized events. A message field has the same encoding as a bytes
+     * field holding that message, so the events are written as they are, rather than being parsed into the batch.
+     */
+    private static ByteString toBatch(List<ByteString> events) {
+        ByteStringBuilder batch = ByteString.createBuilder();
+        for (ByteString event: events) {
+            byte[] header = new byte[CodedOutputStream.computeTagSize(EventEnvelopeBatch.EVENT_FIELD_NUMBER) +
+                                     CodedOutputStream.computeRawVarint32Size(event.size())];
+            CodedOutputStream out = CodedOutputStream.newInstance(header);
+            try {
+                out.writeTag(EventEnvelopeBatch.EVENT_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeRawVarint32(event.size());
+            } catch (IOException x) {
+                throw new RuntimeException(x);
+            }
+            batch.putBytes(header).append(event);
+        }
+        return batch.result();
+    }
+    
+    private static List<Message> toMessages(List<ByteString> events) {
+        return Vector.ofAll(events).map(e -> (Message) BinaryMessage.create(e)).toJavaList();
+    }
 
+    /**
+     * Serializes an event to send to the remote datacenter, as a Query.EventEnvelope protobuf message. This is used
+     * for every event, whether they're sent in batches or one per frame.
+     */
     protected ByteString serialize(EventEnvelope e) {
         return ByteString.fromArray(serializer.apply(e).toByteArray());
     }
@@ -1,14 +1,17 @@
 package com.tradeshift.reaktive.replication.io;
 
 import static akka.http.javadsl.server.Directives.handleWebSocketMessages;
+import static akka.http.javadsl.server.Directives.optionalHeaderValueByName;
 import static akka.http.javadsl.server.Directives.path;
 import static akka.http.javadsl.server.Directives.pathPrefix;
+import static akka.http.javadsl.server.Directives.respondWithHeader;
 import static akka.http.javadsl.server.Directives.route;
 import static akka.pattern.PatternsCS.ask;
 
 import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -16,6 +19,7 @@ import org.slf4j.LoggerFactory;
 
 import com.tradeshift.reaktive.akka.SharedActorMaterializer;
 import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventEnvelopeBatch;
 import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventsPersisted;
 import com.tradeshift.reaktive.ssl.SSLFactory;
 import com.typesafe.config.Config;
@@ -28,26 +32,48 @@ import akka.http.javadsl.ConnectionContext;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.ServerBinding;
 import akka.http.javadsl.UseHttp2;
+import akka.http.javadsl.model.headers.RawHeader;
 import akka.http.javadsl.model.ws.BinaryMessage;
 import akka.http.javadsl.model.ws.Message;
 import akka.http.javadsl.server.Route;
 import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
 import akka.stream.TLSClientAuth;
 import akka.stream.javadsl.Flow;
 import akka.util.ByteString;
 import akka.util.Timeout;
+import io.vavr.Tuple;
+import io.vavr.collection.HashMap;
 import io.vavr.collection.Map;
-import io.vavr.control.Option;
+import io.vavr.collection.Vector;
 
 /**
  * Server that allows a data center to receive incoming web socket connections from a {@link WebSocketDataCenterClient}, in order
  * to receive incoming replicated events.
+ *
+ * Clients that ask for {@link #BATCH_PROTOCOL} in the {@link #PROTOCOL_HEADER} request header send an {@link EventEnvelopeBatch}
+ * per frame, which the server confirms by returning the same header. Other clients send a single {@link Query.EventEnvelope}
+ * per frame. Batch frames are deflate-compressed if the client asks for that in the {@link #COMPRESSION_HEADER}, which the
+ * server confirms in the same way.
  */
 public class WebSocketDataCenterServer {
+    /**
+     * HTTP header in which client and server agree on the protocol of a connection. This isn't done through web socket
+     * subprotocols, since clients refuse the connection if the server doesn't know the requested subprotocol.
+     */
+    public static final String PROTOCOL_HEADER = "X-Replication-Protocol";
+
+    /** The protocol in which each frame is an EventEnvelopeBatch, rather than a single EventEnvelope */
+    public static final String BATCH_PROTOCOL = "batch-v1";
+
+    /** HTTP header in which client and server agree on the compression of batch frames, i.e. "deflate" */
+    public static final String COMPRESSION_HEADER = "X-Replication-Compression";
+
     private static final Logger log = LoggerFactory.getLogger(WebSocketDataCenterServer.class);
     
     private final Duration timeout;
     private final int maxInFlight;
+    private final ConcurrentHashMap<String,FrameCompression.Metrics> compressionMetrics = new ConcurrentHashMap<>();
 
     private CompletionStage<ServerBinding> binding;
     
@@ -62,7 +88,10 @@ public class WebSocketDataCenterServer {
         Route route = pathPrefix("events", () -> route(
             tagsAndShardRegions.map(t ->
                 path(t._1, () ->
-                    handleWebSocketMessages(flow(t._2))
+                    optionalHeaderValueByName(PROTOCOL_HEADER, protocol ->
+                    optionalHeaderValueByName(COMPRESSION_HEADER, compression ->
+                        handle(t._1, t._2, protocol, compression, materializer)
+                    ))
                 )
             ).toJavaArray(Route.class)
         ));
@@ -84,20 +113,70 @@ public class WebSocketDataCenterServer {
         return binding;
     }
 
-    private Flow<Message,Message,?> flow(ActorRef shardRegion) {
+    private Route handle(String tag, ActorRef shardRegion, Optional<String> protocol, Optional<String> compression, Materializer materializer) {
+        if (!protocol.filter(BATCH_PROTOCOL::equals).isPresent()) {
+            return handleWebSocketMessages(flow(shardRegion, materializer));
+        } else if (!compression.filter(FrameCompression.DEFLATE::equals).isPresent()) {
+            return respondWithHeader(RawHeader.create(PROTOCOL_HEADER, BATCH_PROTOCOL), () ->
+                handleWebSocketMessages(batchFlow(shardRegion, binaryData(materializer))));
+        } else {
+            FrameCompression.Metrics metrics = compressionMetrics.computeIfAbsent(tag, t ->
+                new FrameCompression.Metrics(HashMap.of("tag", t, "side", "server")));
+            return respondWithHeader(RawHeader.create(PROTOCOL_HEADER, BATCH_PROTOCOL), () ->
+                respondWithHeader(RawHeader.create(COMPRESSION_HEADER, FrameCompression.DEFLATE), () -> {
+                    // Created for each request, since it must only see the frames of this connection.
+                    FrameCompression.Decompressor decompressor = new FrameCompression.Decompressor(metrics);
+                    return handleWebSocketMessages(batchFlow(shardRegion, binaryData(materializer)
+                        .map(decompressor::decompress)
+                        .watchTermination((mat, done) -> {
+                            done.whenComplete((d, x) -> decompressor.end());
+                            return mat;
+                        })));
+                }));
+        }
+    }
+
+    /**
+     * Returns the data of incoming binary messages. Larger messages may arrive in parts, which are collected first.
+     */
+    private Flow<Message,ByteString,?> binaryData(Materializer materializer) {
         return Flow.<Message>create()
-            .map(msg -> {
+            .filter(msg -> {
                 if (msg.isText()) {
                     log.warn("Ignoring unexpected text-kind web socket message {}", msg);
-                    return Option.<Query.EventEnvelope>none();
+                    return false;
                 } else {
-                    return Option.<Query.EventEnvelope>some(Query.EventEnvelope.parseFrom(msg.asBinaryMessage().getStrictData().toArray()));
+                    return true;
                 }
             })
-            .filter(o -> o.isDefined())
-            .map(o -> o.get())
+            .mapAsync(1, msg -> msg.asBinaryMessage().toStrict(timeout.toMillis(), materializer).thenApply(strict -> strict.data()));
+    }
+
+    private Flow<Message,Message,?> flow(ActorRef shardRegion, Materializer materializer) {
+        return binaryData(materializer)
+            .map(data -> Query.EventEnvelope.parseFrom(data.toArray()))
             .mapAsync(maxInFlight, e -> ask(shardRegion, e, timeout))
             .map(resp -> (Long) resp)
-            .map(l -> BinaryMessage.create(ByteString.fromArray(EventsPersisted.newBuilder().setOffset(l).build().toByteArray())));
+            .map(l -> toEventsPersisted(l));
+    }
+
+    /**
+     * Handles a connection in {@link #BATCH_PROTOCOL}. The events of all batches are sent to the shard region in order,
+     * with up to [maxInFlight] events awaiting a reply. A batch is acknowledged once all of its events (and those
+     * of earlier batches) have been persisted, with the offset of its last event.
+     */
+    private Flow<Message,Message,?> batchFlow(ActorRef shardRegion, Flow<Message,ByteString,?> frames) {
+        return frames
+            .mapConcat(data -> {
+                Vector<Query.EventEnvelope> events = Vector.ofAll(EventEnvelopeBatch.parseFrom(data.toArray()).getEventList());
+                return events.zipWithIndex().map(t -> Tuple.of(t._1, t._2 == events.size() - 1)).toJavaList();
+            })
+            .mapAsync(maxInFlight, t -> ask(shardRegion, t._1, timeout).thenApply(resp -> Tuple.of((Long) resp, t._2)))
+            .filter(t -> t._2)
+            .map(t -> toEventsPersisted(t._1));
+    }
+
+    private static Message toEventsPersisted(long offset) {
+        return BinaryMessage.create(ByteString.fromArray(EventsPersisted.newBuilder().setOffset(offset).build().toByteArray()));
     }
 }
@@ -0,0 +1,97 @@
+package com.tradeshift.reaktive.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import akka.Done;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class ReplaySchedulerSpec {
+    /** Records the replays that have been started, which the test completes by hand */
+    private static class Replays {
+        private final ConcurrentLinkedQueue<Tuple2<String,Long>> started = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<CompletableFuture<Long>> running = new ConcurrentLinkedQueue<>();
+
+        public CompletionStage<Long> replay(String persistenceId, long fromSequenceNr) {
+            started.add(Tuple.of(persistenceId, fromSequenceNr));
+            CompletableFuture<Long> f = new CompletableFuture<>();
+            running.add(f);
+            return f;
+        }
+
+        public Vector<Tuple2<String,Long>> started() {
+            return Vector.ofAll(started);
+        }
+
+        public void completeNext(long lastSequenceNr) {
+            running.remove().complete(lastSequenceNr);
+        }
+    }
+
+    {
+        describe("ReplayScheduler", () -> {
+            it("should coalesce replays requested during a running replay into one catch-up replay", () -> {
+                Replays replays = new Replays();
+                ReplayScheduler scheduler = new ReplayScheduler(4, replays::replay);
+
+                CompletionStage<Done> first = scheduler.schedule("doc1");
+                CompletionStage<Done> second = scheduler.schedule("doc1");
+                CompletionStage<Done> third = scheduler.schedule("doc1");
+                assertThat(replays.started()).containsExactly(Tuple.of("doc1", 0l));
+
+                replays.completeNext(5);
+                assertThat(first.toCompletableFuture().isDone()).isTrue();
+                assertThat(second.toCompletableFuture().isDone()).isFalse();
+                assertThat(replays.started()).containsExactly(Tuple.of("doc1", 0l), Tuple.of("doc1", 6l));
+
+                replays.completeNext(7);
+                assertThat(second.toCompletableFuture().isDone()).isTrue();
+                assertThat(third.toCompletableFuture().isDone()).isTrue();
+                assertThat(scheduler.size()).isEqualTo(0);
+            });
+
+            it("should run at most maxConcurrent replays at the same time", () -> {
+                Replays replays = new Replays();
+                ReplayScheduler scheduler = new ReplayScheduler(2, replays::replay);
+
+                scheduler.schedule("doc1");
+                scheduler.schedule("doc2");
+                CompletionStage<Done> third = scheduler.schedule("doc3");
+                assertThat(scheduler.schedule("doc3")).isSameAs(third);
+                assertThat(replays.started().map(t -> t._1)).containsExactly("doc1", "doc2");
+
+                replays.completeNext(1);
+                assertThat(replays.started().map(t -> t._1)).containsExactly("doc1", "doc2", "doc3");
+                replays.completeNext(1);
+                replays.completeNext(1);
+                assertThat(third.toCompletableFuture().isDone()).isTrue();
+                assertThat(scheduler.size()).isEqualTo(0);
+            });
+
+            it("should fail the waiting callers if a replay fails, and still run the catch-up replay", () -> {
+                Replays replays = new Replays();
+                ReplayScheduler scheduler = new ReplayScheduler(4, replays::replay);
+
+                CompletionStage<Done> first = scheduler.schedule("doc1");
+                CompletionStage<Done> second = scheduler.schedule("doc1");
+                replays.running.remove().completeExceptionally(new IllegalStateException("Simulated failure"));
+
+                assertThat(first.toCompletableFuture().isCompletedExceptionally()).isTrue();
+                assertThat(replays.started()).containsExactly(Tuple.of("doc1", 0l), Tuple.of("doc1", 0l));
+                replays.completeNext(3);
+                assertThat(second.toCompletableFuture().isDone()).isTrue();
+            });
+        });
+    }
+}
@@ -196,6 +196,36 @@ public class ReplicatedActorSpec extends SharedActorSystemSpec {
                 sender.expectMsg("third");
             });
             
+            it("should reject the EventEnvelope furthest ahead when its reorder buffer is full", () -> {
+                for (long seqNr = 1003; seqNr >= 3; seqNr--) {
+                    actor.tell(Query.EventEnvelope.newBuilder()
+                        .setEvent(
+                            ByteString.copyFrom(TestEvent.newBuilder().setMsg("event" + seqNr).build().toByteArray())
+                        )
+                        .setTimestamp(seqNr * 1000)
+                        .setPersistenceId(actor.path().name())
+                        .setSequenceNr(seqNr)
+                    .build(), sender.getRef());
+                }
+                Failure f = sender.expectMsgClass(Failure.class);
+                assertThat(f.cause()).hasMessageContaining("rejecting sequence nr 1003");
+                
+                actor.tell(Query.EventEnvelope.newBuilder()
+                    .setEvent(
+                        ByteString.copyFrom(TestEvent.newBuilder().setMsg("second").build().toByteArray())
+                    )
+                    .setTimestamp(2000l)
+                    .setPersistenceId(actor.path().name())
+                    .setSequenceNr(2l)
+                .build(), sender.getRef());
+                
+                for (long seqNr = 2; seqNr <= 1002; seqNr++) {
+                    sender.expectMsg(seqNr * 1000);
+                }
+                actor.tell(cmd().setRead(TestCommand.Read.newBuilder()).build(), sender.getRef());
+                sender.expectMsg("event1002");
+            });
+            
             it("should process non-command messages normally", () -> {
                 sender.send(actor, "hello");
                 sender.expectMsg("You sent: hello");
@@ -0,0 +1,109 @@
+package com.tradeshift.reaktive.replication;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import io.vavr.collection.HashSet;
+
+@RunWith(CuppaRunner.class)
+public class VisibilityCacheSpec {
+    private static final DataCenter remote = new DataCenter() {
+        @Override
+        public String getName() {
+            return "remote";
+        }
+
+        @Override
+        public akka.stream.javadsl.Flow<akka.persistence.query.EventEnvelope, Long, ?> uploadFlow() {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static Supplier<CompletionStage<Visibility>> counting(AtomicInteger loads, Visibility v) {
+        return () -> {
+            loads.incrementAndGet();
+            return completedFuture(v);
+        };
+    }
+
+    {
+        describe("VisibilityCache", () -> {
+            it("should only look up a persistenceId once, until it expires", () -> {
+                AtomicLong now = new AtomicLong();
+                AtomicInteger loads = new AtomicInteger();
+                VisibilityCache cache = new VisibilityCache(10, Duration.ofNanos(100), now::get);
+
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                assertThat(loads.get()).isEqualTo(1);
+
+                now.set(100);
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                assertThat(loads.get()).isEqualTo(2);
+            });
+
+            it("should evict the least recently used persistenceId when full", () -> {
+                AtomicInteger loads = new AtomicInteger();
+                VisibilityCache cache = new VisibilityCache(2, Duration.ofMinutes(1));
+
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                cache.get("doc2", counting(loads, Visibility.EMPTY));
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                cache.get("doc3", counting(loads, Visibility.EMPTY));
+                assertThat(cache.size()).isEqualTo(2);
+                assertThat(loads.get()).isEqualTo(3);
+
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                assertThat(loads.get()).isEqualTo(3);
+                cache.get("doc2", counting(loads, Visibility.EMPTY));
+                assertThat(loads.get()).isEqualTo(4);
+            });
+
+            it("should apply updates to a lookup that is still in progress", () -> {
+                VisibilityCache cache = new VisibilityCache(10, Duration.ofMinutes(1));
+                CompletableFuture<Visibility> lookup = new CompletableFuture<>();
+
+                cache.get("doc1", () -> lookup);
+                cache.update("doc1", v -> v.withMaster(true).add("remote"));
+                lookup.complete(new Visibility(HashSet.empty(), false));
+
+                Visibility v = cache.get("doc1", () -> { throw new AssertionError("Should be cached"); }).toCompletableFuture().get();
+                assertThat(v.isMaster()).isTrue();
+                assertThat(v.isVisibleTo(remote)).isTrue();
+            });
+
+            it("should not cache failed lookups", () -> {
+                AtomicInteger loads = new AtomicInteger();
+                VisibilityCache cache = new VisibilityCache(10, Duration.ofMinutes(1));
+                CompletableFuture<Visibility> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("Simulated failure"));
+
+                cache.get("doc1", () -> failed);
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                assertThat(loads.get()).isEqualTo(1);
+            });
+
+            it("should not cache anything with a max-size of 0", () -> {
+                AtomicInteger loads = new AtomicInteger();
+                VisibilityCache cache = new VisibilityCache(0, Duration.ofMinutes(1));
+
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                cache.get("doc1", counting(loads, Visibility.EMPTY));
+                assertThat(loads.get()).isEqualTo(2);
+                assertThat(cache.size()).isEqualTo(0);
+            });
+        });
+    }
+}
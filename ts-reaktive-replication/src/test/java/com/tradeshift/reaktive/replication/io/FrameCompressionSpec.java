@@ -0,0 +1,51 @@
+package com.tradeshift.reaktive.replication.io;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import akka.util.ByteString;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class FrameCompressionSpec {
+    private static final FrameCompression.Metrics metrics = new FrameCompression.Metrics(HashMap.of("side", "test"));
+
+    private static ByteString frame(int i) {
+        return ByteString.fromString(Vector.range(0, 200).map(n -> "document_" + (n % 20) + ":" + i).mkString(","));
+    }
+
+    {
+        describe("FrameCompression", () -> {
+            it("should decompress each frame by itself, in order", () -> {
+                FrameCompression.Compressor compressor = new FrameCompression.Compressor(6, metrics);
+                FrameCompression.Decompressor decompressor = new FrameCompression.Decompressor(metrics);
+                for (int i = 0; i < 10; i++) {
+                    assertThat(decompressor.decompress(compressor.compress(frame(i)))).isEqualTo(frame(i));
+                }
+            });
+
+            it("should handle frames larger than its buffer, and empty frames", () -> {
+                FrameCompression.Compressor compressor = new FrameCompression.Compressor(1, metrics);
+                FrameCompression.Decompressor decompressor = new FrameCompression.Decompressor(metrics);
+                ByteString large = Vector.range(0, 100).map(FrameCompressionSpec::frame).fold(ByteString.empty(), ByteString::concat);
+
+                assertThat(decompressor.decompress(compressor.compress(large))).isEqualTo(large);
+                assertThat(decompressor.decompress(compressor.compress(ByteString.empty()))).isEqualTo(ByteString.empty());
+            });
+
+            it("should compress repetitive content across frames", () -> {
+                FrameCompression.Compressor compressor = new FrameCompression.Compressor(6, metrics);
+                int first = compressor.compress(frame(1)).size();
+                int second = compressor.compress(frame(1)).size();
+
+                assertThat(first).isLessThan(frame(1).size() / 4);
+                assertThat(second).isLessThan(first / 2);
+            });
+        });
+    }
+}
@@ -0,0 +1,274 @@
+package com.tradeshift.reaktive.replication.io;
+
+import static akka.http.javadsl.server.Directives.handleWebSocketMessages;
+import static akka.http.javadsl.server.Directives.path;
+import static akka.http.javadsl.server.Directives.pathPrefix;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.after;
+import static org.forgerock.cuppa.Cuppa.before;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.forgerock.cuppa.Cuppa.when;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventEnvelopeBatch;
+import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventsPersisted;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.http.javadsl.ConnectHttp;
+import akka.http.javadsl.ConnectionContext;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.ws.BinaryMessage;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.model.ws.WebSocketRequest;
+import akka.http.javadsl.model.ws.WebSocketUpgradeResponse;
+import akka.japi.Pair;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.testkit.TestActor;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+@RunWith(CuppaRunner.class)
+public class WebSocketDataCenterSpec extends SharedActorSystemSpec {
+    private static final int port = freePort();
+    private static final int oldPort = freePort();
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    public WebSocketDataCenterSpec() {
+        super(ConfigFactory.parseString("ts-reaktive.replication.server.port = " + port));
+    }
+
+    private final String uri = "ws://127.0.0.1:" + port + "/events/test";
+    private final String oldUri = "ws://127.0.0.1:" + oldPort + "/events/test";
+    private final FrameCompression.Metrics metrics = new FrameCompression.Metrics(HashMap.of("side", "test"));
+
+    /** Receives the replicated events, and replies with their timestamp as the offset, like a shard region would */
+    private TestKit region;
+    private WebSocketDataCenterServer server;
+    private ServerBinding oldServer;
+
+    private static Query.EventEnvelope event(long i) {
+        return Query.EventEnvelope.newBuilder()
+            .setPersistenceId("doc-" + (i % 3))
+            .setSequenceNr(i)
+            .setTimestamp(i)
+            .setEvent(com.google.protobuf.ByteString.copyFromUtf8("event " + i))
+            .build();
+    }
+
+    private static ByteString batch(long from, long to) {
+        return ByteString.fromArray(EventEnvelopeBatch.newBuilder()
+            .addAllEvent(Vector.rangeClosed(from, to).map(WebSocketDataCenterSpec::event))
+            .build().toByteArray());
+    }
+
+    private static long offset(Message msg) throws Exception {
+        return EventsPersisted.parseFrom(msg.asBinaryMessage().getStrictData().toArray()).getOffset();
+    }
+
+    /**
+     * Sends [messages] over a new web socket connection with the given request headers, and returns the upgrade
+     * response and the offsets of the first [acks] replies.
+     */
+    private Tuple2<WebSocketUpgradeResponse,Seq<Long>> exchange(Seq<Message> messages, int acks, HttpHeader... headers) throws Exception {
+        WebSocketRequest request = WebSocketRequest.create(uri);
+        for (HttpHeader header: headers) {
+            request = request.addHeader(header);
+        }
+        Pair<CompletionStage<WebSocketUpgradeResponse>, CompletionStage<List<Message>>> result = Source.from(messages)
+            .concat(Source.maybe())
+            .viaMat(Http.get(system).webSocketClientFlow(request), Keep.right())
+            .take(acks)
+            .toMat(Sink.seq(), Keep.both())
+            .run(materializer);
+        List<Message> replies = result.second().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        return Tuple.of(result.first().toCompletableFuture().get(), Vector.ofAll(replies).map(msg -> {
+            try {
+                return offset(msg);
+            } catch (Exception x) {
+                throw new RuntimeException(x);
+            }
+        }));
+    }
+
+    /** Uploads [count] events through a WebSocketDataCenterClient, returning the offsets that were acknowledged */
+    private Seq<Long> upload(String uri, int count) throws Exception {
+        return upload(new WebSocketDataCenterClient(system, ConnectionContext.noEncryption(), "remote", uri), count);
+    }
+
+    /** Uploads [count] events through the given client, returning the offsets that were acknowledged */
+    private Seq<Long> upload(WebSocketDataCenterClient client, int count) throws Exception {
+        List<Long> acks = Source.range(1, count)
+            .map(i -> new EventEnvelope(Offset.sequence(i), "doc-" + (i % 3), i, ("event " + i).getBytes(), 0L))
+            .concat(Source.maybe())
+            .via(client.uploadFlow())
+            .takeWhile(offset -> offset < count, true)
+            .runWith(Sink.seq(), materializer)
+            .toCompletableFuture().get(10, TimeUnit.SECONDS);
+        return Vector.ofAll(acks);
+    }
+
+    /** Returns a client that sends all events with "custom" as persistence id */
+    private WebSocketDataCenterClient customClient(String uri) {
+        return new WebSocketDataCenterClient(system, ConnectionContext.noEncryption(), "remote", uri) {
+            @Override
+            protected ByteString serialize(EventEnvelope e) {
+                return ByteString.fromArray(event(e.sequenceNr()).toBuilder().setPersistenceId("custom").build().toByteArray());
+            }
+        };
+    }
+
+    private Seq<Long> receivedTimestamps(int count) {
+        return Vector.ofAll(region.receiveN(count)).map(e -> ((Query.EventEnvelope) e).getTimestamp());
+    }
+
+    private static Option<String> header(WebSocketUpgradeResponse response, String name) {
+        return Option.ofOptional(response.response().getHeader(name)).map(HttpHeader::value);
+    }
+
+    {
+        describe("WebSocketDataCenterServer and WebSocketDataCenterClient", () -> {
+            before(() -> {
+                region = new TestKit(system);
+                region.setAutoPilot(new TestActor.AutoPilot() {
+                    @Override
+                    public TestActor.AutoPilot run(ActorRef sender, Object msg) {
+                        sender.tell(((Query.EventEnvelope) msg).getTimestamp(), ActorRef.noSender());
+                        return keepRunning();
+                    }
+                });
+                server = new WebSocketDataCenterServer(system, HashMap.of("test", region.getRef()));
+                server.getBinding().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+                // A server of an earlier version, which only understands one event per frame, and knows no headers.
+                Flow<Message,Message,?> old = Flow.<Message>create()
+                    .mapAsync(1, msg -> msg.asBinaryMessage().toStrict(10000, materializer))
+                    .map(msg -> Query.EventEnvelope.parseFrom(msg.getStrictData().toArray()))
+                    .map(e -> (Message) BinaryMessage.create(ByteString.fromArray(
+                        EventsPersisted.newBuilder().setOffset(e.getTimestamp()).build().toByteArray())));
+                oldServer = Http.get(system).bindAndHandle(
+                    pathPrefix("events", () -> path("test", () -> handleWebSocketMessages(old))).flow(system, materializer),
+                    ConnectHttp.toHost("127.0.0.1", oldPort), materializer).toCompletableFuture().get(10, TimeUnit.SECONDS);
+            });
+
+            after(() -> {
+                server.getBinding().toCompletableFuture().get().unbind().toCompletableFuture().get(10, TimeUnit.SECONDS);
+                oldServer.unbind().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            });
+
+            when("negotiating the protocol", () -> {
+                it("should accept batches with deflate compression when the client asks for both", () -> {
+                    FrameCompression.Compressor compressor = new FrameCompression.Compressor(6, metrics);
+                    Tuple2<WebSocketUpgradeResponse,Seq<Long>> result = exchange(
+                        Vector.of(BinaryMessage.create(compressor.compress(batch(1, 3)))), 1,
+                        RawHeader.create(WebSocketDataCenterServer.PROTOCOL_HEADER, WebSocketDataCenterServer.BATCH_PROTOCOL),
+                        RawHeader.create(WebSocketDataCenterServer.COMPRESSION_HEADER, FrameCompression.DEFLATE));
+                    compressor.end();
+
+                    assertThat(header(result._1, WebSocketDataCenterServer.PROTOCOL_HEADER)).containsExactly(WebSocketDataCenterServer.BATCH_PROTOCOL);
+                    assertThat(header(result._1, WebSocketDataCenterServer.COMPRESSION_HEADER)).containsExactly(FrameCompression.DEFLATE);
+                    assertThat(result._2).containsExactly(3L);
+                    assertThat(receivedTimestamps(3)).containsExactly(1L, 2L, 3L);
+                });
+
+                it("should accept uncompressed batches for a compression it doesn't know", () -> {
+                    Tuple2<WebSocketUpgradeResponse,Seq<Long>> result = exchange(
+                        Vector.of(BinaryMessage.create(batch(1, 2))), 1,
+                        RawHeader.create(WebSocketDataCenterServer.PROTOCOL_HEADER, WebSocketDataCenterServer.BATCH_PROTOCOL),
+                        RawHeader.create(WebSocketDataCenterServer.COMPRESSION_HEADER, "gzip"));
+
+                    assertThat(header(result._1, WebSocketDataCenterServer.PROTOCOL_HEADER)).containsExactly(WebSocketDataCenterServer.BATCH_PROTOCOL);
+                    assertThat(header(result._1, WebSocketDataCenterServer.COMPRESSION_HEADER)).isEmpty();
+                    assertThat(result._2).containsExactly(2L);
+                    assertThat(receivedTimestamps(2)).containsExactly(1L, 2L);
+                });
+
+                it("should expect one event per frame from a client that doesn't ask for batches", () -> {
+                    Tuple2<WebSocketUpgradeResponse,Seq<Long>> result = exchange(
+                        Vector.of(1L, 2L).map(i -> BinaryMessage.create(ByteString.fromArray(event(i).toByteArray()))), 2);
+
+                    assertThat(header(result._1, WebSocketDataCenterServer.PROTOCOL_HEADER)).isEmpty();
+                    assertThat(header(result._1, WebSocketDataCenterServer.COMPRESSION_HEADER)).isEmpty();
+                    assertThat(result._2).containsExactly(1L, 2L);
+                    assertThat(receivedTimestamps(2)).containsExactly(1L, 2L);
+                });
+            });
+
+            when("receiving batches", () -> {
+                it("should acknowledge each batch once, with the offset of its last event", () -> {
+                    Tuple2<WebSocketUpgradeResponse,Seq<Long>> result = exchange(
+                        Vector.of(batch(1, 3), batch(4, 5), batch(6, 6)).map(BinaryMessage::create), 3,
+                        RawHeader.create(WebSocketDataCenterServer.PROTOCOL_HEADER, WebSocketDataCenterServer.BATCH_PROTOCOL));
+
+                    assertThat(result._2).containsExactly(3L, 5L, 6L);
+                    assertThat(receivedTimestamps(6)).containsExactly(1L, 2L, 3L, 4L, 5L, 6L);
+                });
+
+                it("should collect a batch that arrives as a streamed message", () -> {
+                    ByteString data = batch(1, 4);
+                    Message streamed = BinaryMessage.create(Source.from(Vector.of(data.take(10), data.drop(10))));
+                    Tuple2<WebSocketUpgradeResponse,Seq<Long>> result = exchange(Vector.of(streamed), 1,
+                        RawHeader.create(WebSocketDataCenterServer.PROTOCOL_HEADER, WebSocketDataCenterServer.BATCH_PROTOCOL));
+
+                    assertThat(result._2).containsExactly(4L);
+                    assertThat(receivedTimestamps(4)).containsExactly(1L, 2L, 3L, 4L);
+                });
+            });
+
+            when("uploading events with a client", () -> {
+                it("should replicate all events to a server that supports batches", () -> {
+                    Seq<Long> acks = upload(uri, 10);
+
+                    assertThat(acks.last()).isEqualTo(10L);
+                    assertThat(receivedTimestamps(10)).containsExactlyElementsOf(Vector.rangeClosed(1L, 10L));
+                });
+
+                it("should fall back to one event per frame for a server that doesn't support batches", () -> {
+                    Seq<Long> acks = upload(oldUri, 10);
+
+                    assertThat(acks).containsExactlyElementsOf(Vector.rangeClosed(1L, 10L));
+                });
+
+                it("should serialize events using serialize(), in batches and one per frame", () -> {
+                    upload(customClient(uri), 3);
+                    assertThat(Vector.ofAll(region.receiveN(3)).map(e -> ((Query.EventEnvelope) e).getPersistenceId()))
+                        .containsOnly("custom");
+
+                    assertThat(upload(customClient(oldUri), 3)).containsExactly(1L, 2L, 3L);
+                });
+            });
+        });
+    }
+}